@@ -0,0 +1,108 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * anneau de ElectionManager partageant une seule EventLoop, utilisé par les
+ * benchmarks pour mesurer la convergence d'une élection complète
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+class BenchmarkRing {
+
+    private final EventLoop eventLoop;
+    private final Thread eventLoopThread;
+    private final ElectionManager[] electionManagers;
+
+    /**
+     * construit et démarre un anneau de ringSize serveurs sur la loopback
+     *
+     * @param ringSize nombre de serveurs de l'anneau
+     * @param firstPort port du premier serveur, les suivants sont consécutifs
+     * @param transportFactory transport reliant les serveurs
+     * @throws IOException si un channel ne peut être ouvert
+     */
+    BenchmarkRing(int ringSize, int firstPort,
+                  TransportFactory transportFactory) throws IOException {
+        ServerDAO[] servers = loopbackServers(ringSize, firstPort);
+        // ticks d'une milliseconde pour ne pas quantifier la mesure
+        eventLoop = new EventLoop(1, 1024);
+        electionManagers = new ElectionManager[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            electionManagers[i] = new ElectionManager(servers[i], servers,
+                                                      eventLoop,
+                                                      transportFactory);
+        }
+        eventLoopThread = new Thread(eventLoop);
+        eventLoopThread.start();
+    }
+
+    /**
+     * lance une élection depuis le premier serveur et attend que tous les
+     * serveurs de l'anneau connaissent l'élu. L'attente repose sur les
+     * futures des ElectionManager, sans sonder leur état.
+     *
+     * @param timeout attente maximale en millisecondes
+     * @throws InterruptedException si l'attente est interrompue
+     * @throws IllegalStateException si l'anneau a déjà élu ou si l'élection
+     *         n'a pas convergé à temps
+     */
+    void elect(long timeout) throws InterruptedException {
+        CompletableFuture<?>[] completions
+                = new CompletableFuture<?>[electionManagers.length];
+        for (int i = 0; i < electionManagers.length; i++) {
+            completions[i] = electionManagers[i].awaitElection();
+            if (completions[i].isDone()) {
+                throw new IllegalStateException("Une seule élection par anneau");
+            }
+        }
+        electionManagers[0].startNewElection();
+        try {
+            CompletableFuture.allOf(completions)
+                             .get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException ex) {
+            throw new IllegalStateException("L'élection n'a pas convergé en "
+                    + timeout + " ms", ex);
+        }
+    }
+
+    /**
+     * arrête les gestionnaires et la boucle
+     *
+     * @throws InterruptedException si l'attente de la boucle est interrompue
+     */
+    void stop() throws InterruptedException {
+        eventLoop.execute(() -> {
+            for (ElectionManager electionManager : electionManagers) {
+                electionManager.stop();
+            }
+        });
+        eventLoop.stop();
+        eventLoopThread.join();
+    }
+
+    /**
+     * construit une table de correspondance de serveurs sur la loopback
+     *
+     * @param ringSize nombre de serveurs
+     * @param firstPort port du premier serveur, 0 pour des ports éphémères
+     * @return la table de correspondance id->serveur
+     * @throws UnknownHostException si l'adresse de loopback est introuvable
+     */
+    static ServerDAO[] loopbackServers(int ringSize, int firstPort)
+            throws UnknownHostException {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        ServerDAO[] servers = new ServerDAO[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            servers[i] = new ServerDAO(loopback,
+                                       firstPort == 0 ? 0 : firstPort + i, i);
+        }
+        return servers;
+    }
+}
@@ -0,0 +1,102 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * mesure le temps de convergence d'une élection complète (tour ELECTION puis
+ * tour RESULT) sur un anneau de ringSize serveurs, en UDP sur la loopback ou
+ * sur un InMemoryNetwork.
+ *
+ * Un nouvel anneau est construit pour chaque mesure afin que chaque élection
+ * parte du même état initial.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConvergenceBenchmark {
+
+    private static final int FIRST_PORT = 30000;
+    private static final long CONVERGENCE_TIME_OUT = 60000;
+
+    @Param({"4", "64", "1024"})
+    private int ringSize;
+
+    @Param({"udp", "memory"})
+    private String transport;
+
+    private BenchmarkRing ring;
+    private PrintStream stdout;
+
+    /**
+     * coupe les traces du protocole qui fausseraient la mesure
+     */
+    @Setup(Level.Trial)
+    public void silence() {
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    /**
+     * rétablit la sortie standard
+     */
+    @TearDown(Level.Trial)
+    public void restore() {
+        System.setOut(stdout);
+    }
+
+    /**
+     * construit un anneau neuf avant chaque élection
+     *
+     * @throws IOException si un channel ne peut être ouvert
+     */
+    @Setup(Level.Invocation)
+    public void buildRing() throws IOException {
+        TransportFactory transportFactory = "memory".equals(transport)
+                ? new InMemoryNetwork() : UdpTransport.FACTORY;
+        ring = new BenchmarkRing(ringSize, FIRST_PORT, transportFactory);
+    }
+
+    /**
+     * libère les ports de l'anneau
+     *
+     * @throws InterruptedException si l'arrêt de la boucle est interrompu
+     */
+    @TearDown(Level.Invocation)
+    public void stopRing() throws InterruptedException {
+        ring.stop();
+    }
+
+    @Benchmark
+    public void electionConvergence() throws InterruptedException {
+        ring.elect(CONVERGENCE_TIME_OUT);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * mesure le coût de la comparaison des candidats lors d'une élection
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElectionBenchmark {
+
+    private EventLoop eventLoop;
+    private ElectionManager electionManager;
+    private ServerDAO weaker;
+    private ServerDAO stronger;
+    private InetAddressComparator comparator;
+    private InetAddress first;
+    private InetAddress second;
+
+    /**
+     * crée un gestionnaire d'élection sur un port libre, la boucle n'est
+     * pas démarrée car seul calculateElected est appelé
+     *
+     * @throws IOException si le channel ne peut être ouvert
+     */
+    @Setup
+    public void setup() throws IOException {
+        ServerDAO[] servers = BenchmarkRing.loopbackServers(3, 0);
+        eventLoop = new EventLoop();
+        electionManager = new ElectionManager(servers[1], servers, eventLoop);
+        weaker = servers[0];
+        stronger = servers[2];
+        comparator = new InetAddressComparator();
+        first = InetAddress.getByName("10.0.0.1");
+        second = InetAddress.getByName("10.0.0.2");
+    }
+
+    /**
+     * libère le channel du gestionnaire
+     */
+    @TearDown
+    public void tearDown() {
+        electionManager.stop();
+    }
+
+    @Benchmark
+    public ServerDAO calculateElectedKeepsSelf() {
+        return electionManager.calculateElected(weaker);
+    }
+
+    @Benchmark
+    public ServerDAO calculateElectedKeepsCandidat() {
+        return electionManager.calculateElected(stronger);
+    }
+
+    @Benchmark
+    public int compareInetAddress() {
+        return comparator.compare(first, second);
+    }
+}
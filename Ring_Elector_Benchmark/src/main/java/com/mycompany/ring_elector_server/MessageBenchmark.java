@@ -0,0 +1,94 @@
+package com.mycompany.ring_elector_server;
+
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * mesure le débit de construction et de décodage des Message, et celui du
+ * MessageCodec qui lit et écrit sur place dans un ByteBuffer réutilisé
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    private ServerDAO[] servers;
+    private byte[] electionBuffer;
+    private byte[] responseBuffer;
+    private ByteBuffer frame;
+    private ByteBuffer electionFrame;
+
+    /**
+     * prépare une table de correspondance et des buffers déjà encodés
+     *
+     * @throws UnknownHostException si l'adresse de loopback est introuvable
+     */
+    @Setup
+    public void setup() throws UnknownHostException {
+        servers = BenchmarkRing.loopbackServers(4, 1800);
+        Message election = new Message(MessageType.ELECTION, servers[2]);
+        electionBuffer = election.getMessage().clone();
+        Message response = new Message();
+        responseBuffer = response.getMessage().clone();
+        frame = ByteBuffer.allocate(MessageCodec.MAX_LENGTH);
+        electionFrame = ByteBuffer.allocate(MessageCodec.MAX_LENGTH);
+        MessageCodec.encode(electionFrame, MessageType.ELECTION, 3,
+                            servers[2], 42, 7);
+    }
+
+    @Benchmark
+    public Message buildElection() {
+        return new Message(MessageType.ELECTION, servers[2]);
+    }
+
+    @Benchmark
+    public Message buildResponse() {
+        return new Message();
+    }
+
+    @Benchmark
+    public Message decodeElection() throws ProtocolException {
+        return Message.BuildMessage(electionBuffer, servers);
+    }
+
+    @Benchmark
+    public Message decodeResponse() throws ProtocolException {
+        return Message.BuildMessage(responseBuffer, servers);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeElection() {
+        MessageCodec.encode(frame, MessageType.ELECTION, 3, servers[2], 42,
+                            7);
+        return frame;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeResponse() {
+        MessageCodec.encodeResponse(frame, 7, 3, MessageCodec.VERSION);
+        return frame;
+    }
+
+    @Benchmark
+    public ServerDAO readElection() throws ProtocolException {
+        MessageCodec.validate(electionFrame);
+        return servers[MessageCodec.candidat(electionFrame)];
+    }
+}
@@ -0,0 +1,73 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * mesure le débit de réponse aux pings de l'élu en UDP sur la loopback.
+ * Les réponses sont envoyées à un channel qui ne les lit jamais, le noyau
+ * les jette une fois son buffer plein.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingResponderBenchmark {
+
+    private EventLoop eventLoop;
+    private Transport transport;
+    private DatagramChannel sink;
+    private PingResponder responder;
+    private InetSocketAddress pinger;
+
+    /**
+     * ouvre le transport du répondeur et le channel des pingueurs
+     *
+     * @throws IOException si un channel ne peut être ouvert
+     */
+    @Setup
+    public void setup() throws IOException {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        eventLoop = new EventLoop();
+        transport = UdpTransport.FACTORY.open(new InetSocketAddress(loopback, 0),
+                                              eventLoop, (data, source) -> { });
+        sink = DatagramChannel.open();
+        sink.bind(new InetSocketAddress(loopback, 0));
+        pinger = (InetSocketAddress) sink.getLocalAddress();
+        responder = new PingResponder(transport, eventLoop);
+    }
+
+    /**
+     * ferme les channels
+     *
+     * @throws IOException si la fermeture échoue
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        transport.close();
+        sink.close();
+    }
+
+    @Benchmark
+    public void answer() throws IOException {
+        responder.answer(pinger);
+    }
+}
@@ -0,0 +1,22 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * stratégie calculant l'aptitude de notre serveur au rôle d'élu, la plus
+ * grande aptitude est élue.
+ *
+ * L'aptitude est échantillonnée au début de chaque tour d'élection auquel
+ * nous participons et transmise aux autres serveurs dans nos messages: elle
+ * peut donc changer d'une élection à l'autre, mais pas pendant un tour.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface AptitudeStrategy {
+    /**
+     * calcule l'aptitude actuelle de notre serveur. Appelé depuis le thread
+     * de l'EventLoop, ne doit donc ni bloquer ni être coûteux.
+     *
+     * @param ownServer notre serveur
+     * @return l'aptitude de notre serveur, plus grande signifie plus apte
+     */
+    int aptitude(ServerDAO ownServer);
+}
@@ -0,0 +1,22 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * callback appelé par l'EventLoop lorsqu'un DatagramChannel enregistré
+ * a des paquets en attente de lecture.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface DatagramHandler {
+
+    /**
+     * appelé depuis le thread de l'EventLoop quand le channel est lisible.
+     * L'implémentation doit lire tous les paquets disponibles sans bloquer.
+     *
+     * @param channel channel lisible
+     * @throws IOException Si un soucis de réseau survient
+     */
+    void onReadable(DatagramChannel channel) throws IOException;
+}
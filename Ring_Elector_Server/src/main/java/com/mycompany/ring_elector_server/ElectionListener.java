@@ -0,0 +1,17 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * callback appelé lorsqu'une élection se termine
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface ElectionListener {
+
+    /**
+     * appelé depuis le thread de l'EventLoop dès que l'élection est
+     * terminée, ne doit donc pas bloquer
+     *
+     * @param state état publié à la fin de l'élection
+     */
+    void electionCompleted(ElectionState state);
+}
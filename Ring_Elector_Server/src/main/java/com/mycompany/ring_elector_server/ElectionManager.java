@@ -1,15 +1,12 @@
 package com.mycompany.ring_elector_server;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.ProtocolException;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.util.ArrayList;
-import java.util.List;
-import static com.mycompany.ring_elector_server.Phase.RESULT_PHASE;
-import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,137 +14,515 @@ import java.util.logging.Logger;
  * Gestionnaire d'élection implémentant l'algorithme d'élection avec panne
  * Nous nous sommes basé sur l'algorithme de la dernière page du pdf chapitre 4
  * 
+ * Les messages sont reçus et traités par l'EventLoop, l'attente d'un
+ * aquittement ne bloque donc plus le thread: chaque message envoyé est
+ * enregistré dans une PendingAckTable par numéro de séquence et une échéance
+ * TIME_OUT programmée dans la boucle déclenche sa retransmission au serveur
+ * suivant.
+ * 
+ * ELECTION et RESULT sont envoyés directement au premier successeur connu
+ * vivant d'après la SuccessorTable, entretenue par les aquittements observés
+ * et par des sondes (PROBE) envoyées toutes les PROBE_PERIOD millisecondes.
+ * 
+ * Les messages transitent par un Transport (UDP par défaut, ou en mémoire
+ * pour des serveurs co-hébergés dans la même JVM). Ils sont encodés et lus
+ * directement dans des ByteBuffer réutilisés par le MessageCodec: envoyer,
+ * recevoir ou aquitter un message n'alloue aucun objet.
+ * 
+ * Le transport, la table des successeurs, les sondes et les aquittements
+ * appartiennent à un ElectionMultiplexer. Un ElectionManager est l'élection
+ * d'un groupe de ce multiplexeur et ne retient que l'état de celle-ci:
+ * construit seul, il crée son propre multiplexeur d'un unique groupe 0.
+ * 
+ * Les messages échangés, les retransmissions et la durée des élections sont
+ * comptés dans un ElectorMetrics publié par JMX, commun aux groupes.
+ * 
+ * L'aptitude des serveurs est calculée par une AptitudeStrategy: fixe par
+ * défaut (StaticAptitude), ou suivant la charge (LoadAwareAptitude) pour
+ * élire le serveur le moins chargé. Chacun échantillonne la sienne au début
+ * de chaque tour et l'annonce dans ses messages, les candidats sont comparés
+ * à l'aptitude lue dans le message.
+ * 
+ * Chaque message porte l'époque (le mandat) de l'élection: un serveur
+ * lançant une élection passe à l'époque suivant la plus grande qu'il
+ * connaît. Un message d'une époque plus ancienne est ignoré à l'arrivée, un
+ * message d'une époque plus récente fait rejoindre ce nouveau tour. Des
+ * élections lancées simultanément portent la même époque et fusionnent:
+ * chaque serveur ne relaie un candidat que s'il est meilleur que le dernier
+ * relayé dans cette époque, seul le meilleur candidat fait donc le tour de
+ * l'anneau. Revenu à lui, il se déclare élu et un tour de RESULT termine
+ * l'élection sur tous les serveurs.
+ * 
+ * Un tour qui n'aboutit pas en ROUND_TIME_OUT milliseconds est relancé
+ * dans l'époque suivante.
+ * 
+ * Le message ELECTION du meilleur candidat visitant tous les serveurs
+ * vivants, chacun y classe sa propre candidature: le message accumule les
+ * MAX_STANDBYS meilleurs serveurs après le candidat et le RESULT transmet
+ * ce classement à tous. Si l'élu tombe en panne, le premier remplaçant
+ * prend sa place par un seul tour de RESULT dans l'époque suivante, qui
+ * confirme la reprise en revenant à lui, au lieu des deux tours d'une
+ * élection complète. Le remplaçant de rang r n'agit qu'après r fois
+ * TAKEOVER_DELAY milliseconds si aucun meilleur remplaçant ne l'a fait, les
+ * autres serveurs ne lancent une élection complète qu'après tous les
+ * remplaçants.
+ * 
+ * L'état de l'élection est publié à chaque changement sous la forme d'un
+ * ElectionState immuable, lisible sans verrou depuis n'importe quel thread.
+ * La fin d'une élection complète un CompletableFuture et prévient les
+ * ElectionListener enregistrés, il n'est donc plus nécessaire de sonder
+ * régulièrement l'élu.
+ * 
+ * Cet état peut être enregistré dans un LeaderSnapshot et restauré au
+ * redémarrage, une fois l'élu validé, sans élection. Il peut aussi être
+ * recopié à chaque changement dans un LeaderRegister projeté en mémoire,
+ * lisible par les autres processus de l'hôte.
+ * 
  * @author Jimmy Verdasca et Nathan Gonzales
  */
-public class ElectionManager implements Runnable {
+public class ElectionManager {
 
-    private final int TIME_OUT = 2000;
-    private final long AVERAGE_ELECTION_TIME = 300;
+    private static final long AVERAGE_ELECTION_TIME = 300;
+    private static final long TAKEOVER_DELAY = ElectionMultiplexer.TIME_OUT;
+    private static final ServerDAO[] NO_STANDBYS = new ServerDAO[0];
+    private final long ROUND_TIME_OUT;
+    private final ElectionMultiplexer multiplexer;
+    private final int group;
+    private final boolean ownsMultiplexer;
     private final ServerDAO mySelf;
-    private final ServerDAO[] servers;
-    private final DatagramSocket socket;
-    private final byte[] buffer;
-    private final int MAX_NB_SERVER;
+    private final EventLoop eventLoop;
+    private static final InetAddressComparator COMPARATOR
+            = new InetAddressComparator();
     private boolean running;
-    private int nextServerAvailable;
     private Phase phase;
     private ServerDAO elected;
+    private final AtomicReference<ElectionState> state;
+    private volatile CompletableFuture<ElectionState> completion;
+    private final CopyOnWriteArrayList<ElectionListener> listeners;
+    private long epoch;
+    private ServerDAO bestForwarded;
+    private Timeout roundTimeout;
+    private ServerDAO[] standbys;
+    private final ServerDAO[] ranking;
+    private int rankingSize;
+    private long electionStart;
+    private long failoverStart;
+    private LeaderRegister register;
+    
+    /**
+     * constructeur
+     * 
+     * @param ownServer informations sur notre propre serveur
+     * @param servers table de correspondance id->serveur
+     * @param eventLoop boucle d'évènements qui traitera nos messages
+     * @throws IOException Si nous ne parvenons pas à créer le channel
+     */
+    public ElectionManager(ServerDAO ownServer, ServerDAO[] servers,
+                           EventLoop eventLoop) throws IOException {
+        this(ownServer, servers, eventLoop, UdpTransport.FACTORY);
+    }
+    
+    /**
+     * constructeur
+     * 
+     * @param ownServer informations sur notre propre serveur
+     * @param servers table de correspondance id->serveur
+     * @param eventLoop boucle d'évènements qui traitera nos messages
+     * @param transportFactory fabrique du transport des messages d'élection
+     * @throws IOException Si nous ne parvenons pas à créer le transport
+     */
+    public ElectionManager(ServerDAO ownServer, ServerDAO[] servers,
+                           EventLoop eventLoop,
+                           TransportFactory transportFactory)
+                           throws IOException {
+        this(ownServer, servers, eventLoop, transportFactory,
+             StaticAptitude.INSTANCE);
+    }
     
     /**
      * constructeur
      * 
      * @param ownServer informations sur notre propre serveur
      * @param servers table de correspondance id->serveur
-     * @throws SocketException Si nous ne parvenons pas à créer la socket
-     */
-    public ElectionManager(ServerDAO ownServer, ServerDAO[] servers)
-            throws SocketException {
-        this.mySelf = ownServer;
-        this.servers = servers;
-        this.MAX_NB_SERVER = servers.length;
-        socket = new DatagramSocket(mySelf.getPort());
-        buffer = new byte[1 + MAX_NB_SERVER];
+     * @param eventLoop boucle d'évènements qui traitera nos messages
+     * @param transportFactory fabrique du transport des messages d'élection
+     * @param aptitudeStrategy calcul de notre aptitude, échantillonnée à
+     *                         chaque élection
+     * @throws IOException Si nous ne parvenons pas à créer le transport
+     */
+    public ElectionManager(ServerDAO ownServer, ServerDAO[] servers,
+                           EventLoop eventLoop,
+                           TransportFactory transportFactory,
+                           AptitudeStrategy aptitudeStrategy)
+                           throws IOException {
+        this(new ElectionMultiplexer(ownServer, servers, eventLoop,
+                                     transportFactory, 1, false,
+                                     aptitudeStrategy), 0, true);
+    }
+    
+    /**
+     * constructeur de l'élection d'un groupe, s'attache au multiplexeur
+     * 
+     * @param multiplexer multiplexeur transportant les messages du groupe
+     * @param group numéro du groupe
+     * @param ownsMultiplexer true si stop() doit aussi arrêter le multiplexeur
+     */
+    ElectionManager(ElectionMultiplexer multiplexer, int group,
+                    boolean ownsMultiplexer) {
+        this.multiplexer = multiplexer;
+        this.group = group;
+        this.ownsMultiplexer = ownsMultiplexer;
+        this.mySelf = multiplexer.getOwnServer();
+        this.eventLoop = multiplexer.getEventLoop();
+        // quelques retransmissions plus un tour d'anneau à 10ms par saut
+        this.ROUND_TIME_OUT = 4L * ElectionMultiplexer.TIME_OUT
+                              + 10L * multiplexer.getServers().length;
         phase = Phase.ELECTION_PHASE;
+        standbys = NO_STANDBYS;
+        ranking = new ServerDAO[MessageCodec.MAX_STANDBYS];
+        state = new AtomicReference<>(new ElectionState(phase, null, 0,
+                                                        standbys));
+        completion = new CompletableFuture<>();
+        listeners = new CopyOnWriteArrayList<>();
+        electionStart = -1;
+        failoverStart = -1;
         running = true;
+        multiplexer.attach(this, group);
     }
     
     /**
-     * Méthode utilitaire permettant de retrouver l'index dans la table de
-     * correspondance d'un serveur donné
-     * 
-     * @param server dont on souhaite trouver l'index
-     * @return l'index dans la table de correspondance du serveur donné
+     * met à jour les variable nécessaire pour une nouvelle élection.
+     * L'état des successeurs est conservé d'une élection à l'autre.
      */
-    private int findIndexOf(ServerDAO server) {
-        for (int index = 0; index < servers.length; index++) {
-            if(server.equals(servers[index])) {
-                return index;
-            }
-        }
-        return -1;
+    public void initialize() {
+        setElected(null);
+        bestForwarded = null;
+        standbys = NO_STANDBYS;
+        rankingSize = 0;
+        publish();
     }
     
     /**
-     * remet à jour le serveur suivant
+     * change l'élu connu et en informe le multiplexeur
+     * 
+     * @param server nouvel élu, null si aucun
      */
-    private void updateNextServer() {
-        int myIndex = findIndexOf(mySelf);
-        
-        if(myIndex == -1){
-            throw new RuntimeException("ownServer not contained in servers list");
-        } else {
-            nextServerAvailable = (myIndex + 1) % servers.length;
+    private void setElected(ServerDAO server) {
+        if (server != elected) {
+            multiplexer.leaderChanged(elected, server);
+            elected = server;
         }
     }
     
     /**
-     * met à jour les variable nécessaire pour une nouvelle élection
+     * publie un nouvel instantané de l'état de l'élection
+     * 
+     * @return l'instantané publié
      */
-    public void initialize() {
-        elected = null;
-        updateNextServer();
+    private ElectionState publish() {
+        ElectionState snapshot = new ElectionState(phase, elected, epoch,
+                                                   standbys);
+        state.set(snapshot);
+        if (register != null) {
+            register.publish(snapshot);
+        }
+        return snapshot;
     }
     
     /**
-     * méthode avec boucle infini qui est à l'écoute en permanence
-     * des message reçu et y réagit correctement
+     * recopie désormais chaque état publié dans un registre projeté en
+     * mémoire, à commencer par l'état courant. L'ancien registre est marqué
+     * sans élu.
+     * 
+     * @param register registre de l'élu, null pour cesser de le tenir à jour
      */
-    @Override
-    public void run() {
-        while (running) {
-            try {
-                System.out.println("WAIT MESSAGE");
-                processMessage(receiveMessage(TIME_OUT));
-            } catch (IOException ex) {
-                System.out.println(ex);
-            }
-            
+    void setRegister(LeaderRegister register) {
+        if (this.register != null && this.register != register) {
+            this.register.close(epoch);
+        }
+        this.register = register;
+        if (register != null) {
+            register.publish(state.get());
         }
     }
     
     /**
-     * Méthode implémentant la logique de réponse en fonction d'un message reçu
+     * Méthode implémentant la logique de réponse en fonction d'un message
+     * ELECTION ou RESULT de ce groupe, déjà aquitté par le multiplexeur.
+     * Un serveur nous envoyant une candidature d'une époque dépassée ou d'un
+     * tour déjà terminé, par exemple parce qu'il vient de rejoindre l'anneau
+     * ou de redémarrer, reçoit directement le RESULT de notre époque plutôt que de relancer
+     * une élection à chaque tour expiré jusqu'à nous rattraper.
      * 
-     * @param message reçu auquel il faut réagir
-     * @throws ProtocolException On ne devrait jamais recevoir de RESPONSE ici
-     *         car l'aquittement est géré dans la méthode d'envoi (sendMessage)
+     * @param messageType type du message reçu auquel il faut réagir
+     * @param data message reçu
+     * @param sender serveur ayant envoyé le message, null s'il est inconnu
      * @throws IOException Si un soucis de réseau survient
      */
-    private void processMessage(Message message) throws ProtocolException,
-                                                        IOException {
-        switch (message.getMessageType()) {
+    void processMessage(MessageType messageType, ByteBuffer data,
+                        ServerDAO sender) throws IOException {
+        if (!running) {
+            return;
+        }
+        if (messageType == MessageType.ELECTION
+                || messageType == MessageType.RESULT) {
+            // l'ancien format ne porte pas d'époque: époque courante
+            long messageEpoch = MessageCodec.isLegacy(data)
+                                ? epoch : MessageCodec.epoch(data);
+            if (messageType == MessageType.ELECTION
+                    && phase == Phase.ELECTED_PHASE && messageEpoch <= epoch
+                    && sender != null && !MessageCodec.isLegacy(data)) {
+                // candidature d'un serveur qui a manqué le dernier tour, par
+                // exemple tout juste arrivé: il apprend l'élu sans relancer
+                // d'élection
+                if (messageEpoch < epoch) {
+                    getMetrics().staleMessage();
+                }
+                multiplexer.sendTo(MessageType.RESULT, group, elected, epoch,
+                                   standbys, standbys.length, sender);
+                return;
+            }
+            if (messageEpoch < epoch) {
+                getMetrics().staleMessage();
+                return;
+            } else if (messageEpoch > epoch) {
+                enterRound(messageEpoch);
+            }
+            if (!MessageCodec.isLegacy(data)) {
+                // l'ancien format tronque l'aptitude, la fixe est gardée
+                multiplexer.aptitudeAnnounced(candidatOf(data),
+                                              MessageCodec.aptitude(data));
+            }
+        }
+        switch (messageType) {
             case ELECTION:
-                System.out.println("ELECTION");
-                electionReceived(servers[message.getCandidat()]);
+                electionReceived(candidatOf(data), data);
                 break;
-            case RESPONSE:
-                System.out.println("RESPONSE");
-                throw new ProtocolException("Received a RESPONSE without"
-                        + " sending any ELECTION or RESULT");
             case RESULT:
-                System.out.println("RESULT");
-                resultReceived(servers[message.getCandidat()]);
+                resultReceived(candidatOf(data), data);
+                break;
+            case HANDOFF:
+                handoffReceived(candidatOf(data), MessageCodec.epoch(data),
+                                sender);
+                break;
+            default:
+                // RESPONSE et PROBE sont traités par le multiplexeur
                 break;
         }
     }
     
+    /**
+     * retrouve le candidat désigné par un message ELECTION ou RESULT
+     * 
+     * @param data message reçu
+     * @return le serveur candidat
+     * @throws ProtocolException si le candidat ne fait pas partie de l'anneau
+     */
+    private ServerDAO candidatOf(ByteBuffer data) throws ProtocolException {
+        return serverOf(MessageCodec.candidat(data));
+    }
+    
+    /**
+     * retrouve un serveur de l'anneau désigné par un message
+     * 
+     * @param id identifiant lu dans le message
+     * @return le serveur
+     * @throws ProtocolException si le serveur ne fait pas partie de l'anneau
+     */
+    private ServerDAO serverOf(int id) throws ProtocolException {
+        ServerDAO server = memberOf(id);
+        if (server == null) {
+            throw new ProtocolException("Candidat inconnu : " + id);
+        }
+        return server;
+    }
+    
+    /**
+     * remplace le classement courant par celui des remplaçants d'un message
+     * ELECTION ou RESULT
+     * 
+     * @param data message reçu
+     * @param favorite candidat du message, exclu du classement
+     */
+    private void readRanking(ByteBuffer data, ServerDAO favorite) {
+        rankingSize = 0;
+        int count = MessageCodec.standbyCount(data);
+        ServerDAO[] servers = multiplexer.getServers();
+        for (int rank = 0; rank < count; rank++) {
+            int id = MessageCodec.standby(data, rank);
+            if (id < 0 || id >= servers.length || servers[id] == null) {
+                // remplaçant ayant quitté l'anneau depuis l'envoi
+                continue;
+            }
+            ServerDAO standby = servers[id];
+            multiplexer.aptitudeAnnounced(standby,
+                                          MessageCodec.standbyAptitude(data,
+                                                                       rank));
+            rank(standby, favorite);
+        }
+    }
+    
+    /**
+     * classe un serveur parmi les MAX_STANDBYS meilleurs remplaçants du
+     * classement courant, s'il n'y est pas déjà
+     * 
+     * @param server serveur à classer
+     * @param favorite candidat du tour, qui ne peut pas être son propre
+     *                 remplaçant
+     */
+    private void rank(ServerDAO server, ServerDAO favorite) {
+        if (server == favorite) {
+            return;
+        }
+        for (int i = 0; i < rankingSize; i++) {
+            if (ranking[i] == server) {
+                return;
+            }
+        }
+        int position;
+        if (rankingSize < ranking.length) {
+            position = rankingSize++;
+        } else if (isBetter(server, ranking[ranking.length - 1])) {
+            position = ranking.length - 1;
+        } else {
+            return;
+        }
+        while (position > 0 && isBetter(server, ranking[position - 1])) {
+            ranking[position] = ranking[position - 1];
+            position--;
+        }
+        ranking[position] = server;
+    }
+    
+    /**
+     * commence ou rejoint le tour d'élection d'une époque plus récente,
+     * le résultat des époques précédentes est oublié
+     * 
+     * @param newEpoch époque du nouveau tour
+     */
+    private void enterRound(long newEpoch) {
+        epoch = newEpoch;
+        phase = Phase.ELECTION_PHASE;
+        multiplexer.refreshAptitude();
+        if (completion.isDone()) {
+            completion = new CompletableFuture<>();
+        }
+        initialize();
+        if (electionStart < 0) {
+            electionStart = eventLoop.now();
+            getMetrics().electionStarted();
+        }
+        if (roundTimeout != null) {
+            roundTimeout.cancel();
+        }
+        roundTimeout = eventLoop.schedule(ROUND_TIME_OUT,
+                                          () -> roundTimedOut(newEpoch));
+    }
+    
+    /**
+     * appelé par l'EventLoop si le tour d'une époque n'a pas abouti à temps,
+     * par exemple si le message du meilleur candidat s'est perdu avec un
+     * serveur tombé en panne
+     * 
+     * @param roundEpoch époque du tour
+     */
+    private void roundTimedOut(long roundEpoch) {
+        roundTimeout = null;
+        if (running && epoch == roundEpoch && phase != Phase.ELECTED_PHASE) {
+            System.out.println("Tour d'élection " + roundEpoch
+                                + " sans résultat, relance");
+            startRound();
+        }
+    }
+    
+    /**
+     * passe à l'époque suivante et y présente notre candidature
+     */
+    private void startRound() {
+        enterRound(epoch + 1);
+        bestForwarded = mySelf;
+        rankingSize = 0;
+        try {
+            sendElection(mySelf);
+        } catch (IOException ex) {
+            Logger.getLogger(ElectionManager.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * termine le tour courant en désignant l'élu, le classement courant
+     * devient celui de ses remplaçants
+     * 
+     * @param server élu du tour courant
+     */
+    private void becomeElected(ServerDAO server) {
+        setElected(server);
+        standbys = Arrays.copyOf(ranking, rankingSize);
+        phase = Phase.ELECTED_PHASE;
+        if (roundTimeout != null) {
+            roundTimeout.cancel();
+            roundTimeout = null;
+        }
+        long now = eventLoop.now();
+        getMetrics().electionCompleted(
+                electionStart < 0 ? -1 : now - electionStart,
+                failoverStart < 0 ? -1 : now - failoverStart);
+        electionStart = -1;
+        failoverStart = -1;
+        ElectionState snapshot = publish();
+        CompletableFuture<ElectionState> done = completion;
+        if (done.isDone()) {
+            // un meilleur RESULT remplace l'élu d'une époque déjà terminée
+            done = new CompletableFuture<>();
+            completion = done;
+        }
+        done.complete(snapshot);
+        for (ElectionListener listener : listeners) {
+            try {
+                listener.electionCompleted(snapshot);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(ElectionManager.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+    
     /**
      * méthode implémentant la logique de réception et
-     * de réaction à un message de type ELECTION
+     * de réaction à un message de type ELECTION de l'époque courante.
+     * Le favori n'est relayé que s'il est meilleur que le dernier candidat
+     * relayé dans cette époque, les candidatures plus faibles s'éteignent.
+     * Le candidat écarté et notre serveur sont classés parmi les remplaçants
+     * transportés par le message.
      * 
      * @param candidat candidat reçu du message ELECTION
+     * @param data message reçu
      * @throws IOException Si un soucis de réseau survient
      */
-    private void electionReceived(ServerDAO candidat) throws IOException {
+    private void electionReceived(ServerDAO candidat, ByteBuffer data)
+            throws IOException {
+        if (phase == Phase.ELECTED_PHASE) {
+            // doublon d'un tour déjà terminé
+            return;
+        }
         if (candidat == mySelf) {
-            elected = mySelf;
-            sendResult(elected);
-            phase = RESULT_PHASE;
-        } else {
-            ServerDAO favorite = calculateElected(candidat);
-            sendElection(favorite);
-            phase = Phase.ELECTION_PHASE;
+            // notre candidature a fait le tour sans trouver meilleur, le
+            // classement contient les meilleurs des autres serveurs vivants
+            readRanking(data, mySelf);
+            becomeElected(mySelf);
+            sendResult(mySelf);
+            return;
+        }
+        ServerDAO favorite = calculateElected(candidat);
+        if (bestForwarded != null && !isBetter(favorite, bestForwarded)) {
+            return;
         }
+        bestForwarded = favorite;
+        readRanking(data, favorite);
+        rank(candidat, favorite);
+        rank(mySelf, favorite);
+        sendElection(favorite);
     }
     
     /**
@@ -158,46 +533,318 @@ public class ElectionManager implements Runnable {
      * @return le candidat avec la plus grande
      *         aptitude et la plus petite adresse ip
      */
-    private ServerDAO calculateElected(ServerDAO candidat) {
-        InetAddressComparator compInet = new InetAddressComparator();
-        if(mySelf.getAptitude() > candidat.getAptitude() 
-            || (mySelf.getAptitude() == candidat.getAptitude() 
-            && compInet.compare(mySelf.getIpAdress(), candidat.getIpAdress()) < 0)) {
-            candidat = mySelf;
+    ServerDAO calculateElected(ServerDAO candidat) {
+        return isBetter(mySelf, candidat) ? mySelf : candidat;
+    }
+    
+    /**
+     * indique si un serveur est plus apte à être élu qu'un autre: plus grande
+     * aptitude, puis plus petite adresse ip, puis plus petit identifiant.
+     * L'aptitude est la dernière annoncée par le serveur, la nôtre celle
+     * échantillonnée au début du tour.
+     * 
+     * @param server serveur à comparer
+     * @param other serveur auquel il est comparé
+     * @return true si server est strictement plus apte que other
+     */
+    private boolean isBetter(ServerDAO server, ServerDAO other) {
+        int aptitude = multiplexer.aptitudeOf(server);
+        int otherAptitude = multiplexer.aptitudeOf(other);
+        if (aptitude != otherAptitude) {
+            return aptitude > otherAptitude;
+        }
+        int address = COMPARATOR.compare(server.getIpAdress(),
+                                         other.getIpAdress());
+        if (address != 0) {
+            return address < 0;
         }
-        return candidat;
+        return server.getId() < other.getId();
     }
     
     /**
      * méthode implémentant la logique de réception et
-     * de réaction à un message de type RESULT
+     * de réaction à un message de type RESULT de l'époque courante. Le
+     * RESULT et ses remplaçants sont relayés jusqu'à revenir à l'élu.
      * 
      * @param elected élu devant être transmit aux autres serveurs
+     * @param data message reçu
      * @throws IOException Si un soucis de réseau survient
      */
-    private void resultReceived(ServerDAO elected) throws IOException {
-        if (phase == Phase.ELECTION_PHASE) {
-            this.elected = elected;
-            sendResult(elected);
-            phase = Phase.RESULT_PHASE;
-        } else if (phase == Phase.RESULT_PHASE && elected != this.elected) {
-            sendElection(mySelf);
-            phase = Phase.ELECTION_PHASE;
-        } else {
-            phase = Phase.ELECTED_PHASE;
-            System.out.println("Élection TERMINÉE");
+    private void resultReceived(ServerDAO elected, ByteBuffer data)
+            throws IOException {
+        if (phase == Phase.ELECTED_PHASE) {
+            if (elected == this.elected) {
+                if (elected == mySelf) {
+                    System.out.println("Élection TERMINÉE");
+                }
+                return;
+            } else if (!isBetter(elected, this.elected)) {
+                return;
+            }
+        } else if (elected == mySelf) {
+            // le RESULT de notre reprise a fait le tour: elle est confirmée
+            readRanking(data, mySelf);
+            becomeElected(mySelf);
+            System.out.println("Reprise CONFIRMÉE");
+            return;
+        }
+        readRanking(data, elected);
+        becomeElected(elected);
+        sendResult(elected);
+    }
+    
+    /**
+     * échantillonne à nouveau notre aptitude si aucun tour n'est en cours,
+     * l'aptitude d'un tour restant celle de son début, puis la retourne.
+     * Appelé depuis le thread de l'EventLoop.
+     * 
+     * @return notre aptitude actuelle
+     */
+    int sampleAptitude() {
+        if (phase == Phase.ELECTED_PHASE) {
+            multiplexer.refreshAptitude();
+        }
+        return multiplexer.aptitudeOf(mySelf);
+    }
+    
+    /**
+     * retourne la dernière aptitude connue d'un serveur
+     * 
+     * @param server serveur dont on veut l'aptitude
+     * @return l'aptitude annoncée par le serveur
+     */
+    int aptitudeOf(ServerDAO server) {
+        return multiplexer.aptitudeOf(server);
+    }
+    
+    /**
+     * retient l'aptitude annoncée par l'élu dans une réponse à un ping ou un
+     * battement de coeur
+     * 
+     * @param leader élu surveillé
+     * @param aptitude aptitude actuelle de l'élu
+     */
+    void leaderAptitudeReceived(ServerDAO leader, int aptitude) {
+        multiplexer.aptitudeAnnounced(leader, aptitude);
+    }
+    
+    /**
+     * lance une élection alors que l'élu est vivant, parce que nous sommes
+     * devenu nettement plus apte que lui. L'élection est complète: le plus
+     * apte des serveurs du moment est élu, nous ou un autre. Appelé depuis
+     * le thread de l'EventLoop.
+     */
+    void preempt() {
+        if (running && phase == Phase.ELECTED_PHASE && elected != mySelf) {
+            getMetrics().preemption();
+            startRound();
+        }
+    }
+    
+    /**
+     * appelé depuis l'EventLoop lorsque l'élu ne répond plus. Si la
+     * dernière élection lui a désigné des remplaçants, le premier d'entre
+     * eux prend sa place, les suivants attendent TAKEOVER_DELAY milliseconds
+     * par rang qu'un meilleur remplaçant l'ait fait et les autres serveurs
+     * n'ouvrent une élection complète qu'après eux. Sans remplaçant connu,
+     * une nouvelle élection est lancée.
+     * 
+     * @param leader élu suspecté d'être en panne
+     * @param now temps courant en millisecondes
+     */
+    void leaderSuspected(ServerDAO leader, long now) {
+        coordinatorSuspected(now);
+        multiplexer.serverSuspected(leader);
+        if (phase != Phase.ELECTED_PHASE || elected != leader
+                || standbys.length == 0) {
+            startNewElection();
+            return;
+        }
+        int rank = standbys.length;
+        for (int i = 0; i < standbys.length; i++) {
+            if (standbys[i] == mySelf) {
+                rank = i;
+            }
+        }
+        if (rank == 0) {
+            takeOver();
+            return;
+        }
+        boolean standby = rank < standbys.length;
+        long suspectedEpoch = epoch;
+        eventLoop.schedule(rank * TAKEOVER_DELAY, () -> {
+            // rien à faire si un remplaçant a déjà ouvert une autre époque
+            if (running && epoch == suspectedEpoch && elected == leader) {
+                if (standby) {
+                    takeOver();
+                } else {
+                    startOrJoinRound();
+                }
+            }
+        });
+    }
+    
+    /**
+     * de réaction à un message HANDOFF: l'élu quitte volontairement
+     * l'anneau. Son départ est traité comme une panne détectée sans délai,
+     * son premier remplaçant prend donc sa place en un seul tour de RESULT.
+     * 
+     * Seul l'élu peut annoncer son propre départ: un HANDOFF relayé ou
+     * falsifié au nom de l'élu par un autre serveur est ignoré.
+     * 
+     * @param leader élu annonçant son départ
+     * @param leaderEpoch époque de son élection
+     * @param sender serveur ayant envoyé le message
+     */
+    private void handoffReceived(ServerDAO leader, long leaderEpoch,
+                                 ServerDAO sender) {
+        if (sender != leader) {
+            System.out.println("HANDOFF au nom de l'élu " + leader.getId()
+                                + " ignoré, envoyé par le serveur "
+                                + (sender == null ? "inconnu" : sender.getId()));
+            return;
+        }
+        if (leaderEpoch != epoch || phase != Phase.ELECTED_PHASE
+                || elected != leader) {
+            // un autre élu a déjà été désigné
+            getMetrics().staleMessage();
+            return;
+        }
+        System.out.println("L'élu " + leader.getId() + " quitte l'anneau");
+        leaderSuspected(leader, eventLoop.now());
+    }
+    
+    /**
+     * prend la place de l'élu en panne: ouvre l'époque suivante et envoie
+     * un RESULT nous désignant, avec les remplaçants restants. La reprise
+     * est confirmée lorsque ce RESULT revient, sinon le tour expire et une
+     * élection complète est lancée.
+     */
+    private void takeOver() {
+        System.out.println("Le remplaçant " + mySelf.getId()
+                            + " prend la place de l'élu " + elected.getId());
+        ServerDAO[] previous = standbys;
+        enterRound(epoch + 1);
+        bestForwarded = mySelf;
+        for (ServerDAO server : previous) {
+            rank(server, mySelf);
+        }
+        getMetrics().standbyTakeover();
+        try {
+            sendResult(mySelf);
+        } catch (IOException ex) {
+            Logger.getLogger(ElectionManager.class.getName())
+                  .log(Level.SEVERE, null, ex);
         }
     }
     
     /**
-     * méthode permettant aux classe externe de connaître l'élu
+     * retourne la table de correspondance id->serveur actuelle de l'anneau,
+     * remplacée à chaque changement de topologie
+     * 
+     * @return la table de correspondance id->serveur, null pour un
+     *         identifiant hors de l'anneau
+     */
+    ServerDAO[] getServers() {
+        return multiplexer.getServers();
+    }
+    
+    /**
+     * retourne le dernier état publié de l'élection, peut être appelé
+     * depuis n'importe quel thread
+     * 
+     * @return le dernier état publié de l'élection
+     */
+    public ElectionState getState() {
+        return state.get();
+    }
+    
+    /**
+     * retourne un future complété dès que l'élection en cours se termine,
+     * ou déjà complété si elle est terminée. Les actions dépendantes non
+     * asynchrones s'exécutent dans le thread de l'EventLoop.
+     * 
+     * @return le future de l'état à la fin de l'élection
+     */
+    public CompletableFuture<ElectionState> awaitElection() {
+        return completion;
+    }
+    
+    /**
+     * enregistre un callback prévenu à la fin de chaque élection
+     * 
+     * @param listener callback à enregistrer
+     */
+    public void addListener(ElectionListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * retire un callback enregistré par addListener
+     * 
+     * @param listener callback à retirer
+     */
+    public void removeListener(ElectionListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * retourne les métriques de ce serveur, communes à tous les groupes
+     * 
+     * @return les métriques de ce serveur
+     */
+    public ElectorMetrics getMetrics() {
+        return multiplexer.getMetrics();
+    }
+    
+    /**
+     * retourne le multiplexeur portant cette élection
+     * 
+     * @return le multiplexeur de ce serveur
+     */
+    ElectionMultiplexer getMultiplexer() {
+        return multiplexer;
+    }
+    
+    /**
+     * retourne le numéro du groupe de cette élection
+     * 
+     * @return le numéro du groupe, 0 pour un ElectionManager construit seul
+     */
+    public int getGroup() {
+        return group;
+    }
+    
+    /**
+     * note que l'élu est suspecté, début de la mesure du temps de bascule
+     * 
+     * @param now temps courant en millisecondes
+     */
+    private void coordinatorSuspected(long now) {
+        failoverStart = now;
+    }
+    
+    /**
+     * indique sans exception si l'élection est terminée et a désigné server
+     * 
+     * @param server serveur dont on veut savoir s'il est l'élu
+     * @return true si l'élection est terminée et que server est l'élu
+     */
+    boolean isElected(ServerDAO server) {
+        return state.get().isElected(server);
+    }
+    
+    /**
+     * méthode permettant aux classe externe de connaître l'élu.
+     * getState() permet de le lire sans exception.
      * 
      * @return l'élu
      * @throws IllegalStateException Tant que l'élu n'est pas validé par l'algorithme
      */
     public ServerDAO getElected() throws IllegalStateException {
-        if (phase == Phase.ELECTED_PHASE && elected != null) {
-            return elected;
+        ElectionState current = state.get();
+        if (current.isComplete()) {
+            return current.getElected();
         } else {
             throw new IllegalStateException("getElected should be call only when"
                     + " election is complete");
@@ -212,8 +859,8 @@ public class ElectionManager implements Runnable {
      * @throws IOException Si un soucis de réseau survient
      */
     private void sendResult(ServerDAO elected) throws IOException {
-        sendMessage(new Message(MessageType.RESULT, elected),
-                    servers[nextServerAvailable]);
+        multiplexer.sendToSuccessor(MessageType.RESULT, group, elected, epoch,
+                                    ranking, rankingSize);
     }
     
     /**
@@ -224,143 +871,136 @@ public class ElectionManager implements Runnable {
      * @throws IOException Si un soucis de réseau survient
      */
     private void sendElection(ServerDAO candidat) throws IOException {
-        sendMessage(new Message(MessageType.ELECTION, candidat),
-                    servers[nextServerAvailable], true);
-    }
-    
-    /**
-     * Envoie un Message au ServerDAO destinateur. Si le boolean d'aquitement
-     * est activé, on attend de lire un message de type RESPONSE avant de sortir
-     * de la méthode.
-     * 
-     * Si aucune RESPONSE n'est délivré après TIME_OUT milliseconds,
-     * on cherche le serveur suivant dans la liste et on retente d'envoyer.
-     * 
-     * @param message à envoyer
-     * @param destServer server à qui l'on souhaite envoyer le message
-     * @param aquitmentRequired boolean a true si on veut un accusé de réception
-     * @throws SocketException en cas de problème lors de la création de la socket
-     * @throws IOException en cas de soucis lors de l'envoie du paquet
-     */
-    private void sendMessage(Message message,
-                            ServerDAO destServer,
-                            boolean aquitmentRequired)
-                            throws SocketException, IOException {
-        List<Message> messageStock = new ArrayList<>();
-        DatagramPacket datagram = new DatagramPacket(message.getMessage(),
-                                                    message.getLength(),
-                                                    destServer.getIpAdress(),
-                                                    destServer.getPort());
-        if (aquitmentRequired) {
-            boolean aquitmentReceived = false;
-            while (!aquitmentReceived) {
-                socket.send(datagram);
-                System.out.println("Message AVEC aquittement " + message
-                                + " envoyé au serveur ip " + destServer.getIpAdress()
-                                + " port " + destServer.getPort());
-                try {
-                    Message newMessage = receiveMessage(TIME_OUT);
-                    if (newMessage.getMessageType().value
-                            == MessageType.RESPONSE.value) {
-                        System.out.println("Aquittement reçu");
-                        aquitmentReceived = true;
-                    } else {
-                        messageStock.add(newMessage);
-                    }
-                } catch (SocketTimeoutException ex) {
-                    System.out.println("ERROR");
-                    destServer = this.getNextServer(destServer);
-                    if(destServer == mySelf) {
-                        // Si on est tout seul, on devient l'élu
-                        phase = Phase.ELECTED_PHASE;
-                        this.elected = mySelf;
-                        aquitmentReceived = true;
-                    }
-                }
-            }
-
-            for (Message messageToProcess : messageStock) {
-                processMessage(messageToProcess);
+        multiplexer.sendToSuccessor(MessageType.ELECTION, group, candidat,
+                                    epoch, ranking, rankingSize);
+    }
+    
+    /**
+     * capture l'élu, son époque, ses remplaçants et les serveurs connus en
+     * panne, depuis le thread de l'EventLoop
+     * 
+     * @return l'instantané, null tant qu'aucune élection n'est terminée
+     */
+    LeaderSnapshot snapshot() {
+        if (phase != Phase.ELECTED_PHASE || elected == null) {
+            return null;
+        }
+        int[] standbyIds = new int[standbys.length];
+        for (int i = 0; i < standbys.length; i++) {
+            standbyIds[i] = standbys[i].getId();
+        }
+        ServerDAO[] servers = multiplexer.getServers();
+        int[] deadIds = new int[servers.length];
+        int deadCount = 0;
+        for (ServerDAO server : servers) {
+            if (server != null && server != mySelf
+                    && multiplexer.peerState(server) == PeerState.DEAD) {
+                deadIds[deadCount++] = server.getId();
             }
-        } else {
-            socket.send(datagram);
-            System.out.println("Message SANS aquittement " + message
-                            + " envoyé au serveur ip " + destServer.getIpAdress()
-                            + " port " + destServer.getPort());
         }
+        return new LeaderSnapshot(mySelf.getId(), epoch, elected.getId(),
+                                  standbyIds,
+                                  Arrays.copyOf(deadIds, deadCount));
     }
     
+    /**
+     * reprend l'élu d'un instantané dont l'élu vient de répondre à un ping,
+     * sans élection. Ignoré si un message de l'anneau nous a entre-temps
+     * appris une époque plus récente ou un élu.
+     * 
+     * @param snapshot instantané validé
+     */
+    void restore(LeaderSnapshot snapshot) {
+        ServerDAO leader = memberOf(snapshot.getLeaderId());
+        if (!running || leader == null || phase == Phase.ELECTED_PHASE
+                || epoch > snapshot.getEpoch()) {
+            return;
+        }
+        epoch = snapshot.getEpoch();
+        rankingSize = 0;
+        for (int id : snapshot.getStandbyIds()) {
+            ServerDAO standby = memberOf(id);
+            if (standby != null && standby != leader
+                    && rankingSize < ranking.length) {
+                ranking[rankingSize++] = standby;
+            }
+        }
+        for (int id : snapshot.getDeadIds()) {
+            ServerDAO dead = memberOf(id);
+            if (dead != null && dead != leader && dead != mySelf) {
+                multiplexer.serverSuspected(dead);
+            }
+        }
+        System.out.println("Élu " + leader.getId() + " de l'époque " + epoch
+                            + " repris de l'instantané");
+        getMetrics().warmRestart();
+        becomeElected(leader);
+    }
     
     /**
-     * Par défaut un envoi ce fait sans demande d'aquitement. 
-     * cf. sendMessage(Message, ServerDAO, boolean)
+     * retrouve un serveur de l'anneau sans exception
      * 
-     * @param message à envoyer
-     * @param destServer server à qui l'on souhaite envoyer le message
-     * @throws SocketException en cas de problème lors de la création de la socket
-     * @throws IOException en cas de soucis lors de l'envoie du paquet
+     * @param id identifiant du serveur
+     * @return le serveur, null s'il ne fait pas partie de l'anneau
      */
-    private void sendMessage(Message message, ServerDAO destServer)
-            throws SocketException, IOException {
-        this.sendMessage(message, destServer, false);
+    private ServerDAO memberOf(int id) {
+        ServerDAO[] servers = multiplexer.getServers();
+        return id >= 0 && id < servers.length ? servers[id] : null;
     }
     
     /**
-     * renvoie le serverDAO suivant (avec modulo) parmis les serveurs connus
+     * appelé par le multiplexeur lorsqu'un de nos messages ELECTION ou
+     * RESULT a été abandonné faute d'aquittement: si le tour de son époque
+     * est toujours en cours, il ne peut plus aboutir et est relancé sans
+     * attendre ROUND_TIME_OUT
      * 
-     * @param server dont on souhaite le suivant dans la table de correspondance
-     * @return le serverDAO suivant (avec modulo) parmis les serveurs connus
+     * @param messageEpoch époque du message abandonné
      */
-    private ServerDAO getNextServer(ServerDAO server) {
-        return servers[(server.getId() + 1) % servers.length];
+    void undelivered(long messageEpoch) {
+        if (running && messageEpoch == epoch
+                && phase != Phase.ELECTED_PHASE) {
+            System.out.println("Tour d'élection " + epoch + " interrompu,"
+                                + " relance");
+            startRound();
+        }
     }
     
     /**
-     * permet de stopper proprement cette classe et donc d'arrêter
-     * l'écoute de message
+     * appelé par le multiplexeur lorsque plus aucun autre serveur ne répond:
+     * étant seul, on devient l'élu
      */
-    public void stop() {
-        running = false;
+    void alone() {
+        if (running && !(phase == Phase.ELECTED_PHASE && elected == mySelf)) {
+            rankingSize = 0;
+            becomeElected(mySelf);
+        }
     }
     
     /**
-     * attend de recevoir un Message, Si on ne souhaite pas de timeOut,
-     * il suffit de mettre 0 pour attendre indéfiniment le message
-     * 
-     * @return une classe Message construit à partir du paquet reçu
-     * @throws IOException Si un soucis de réseau survient
-     * @throws SocketTimeoutException si la réception du message prend trop de temps
+     * permet de stopper proprement cette classe et donc d'arrêter
+     * l'écoute de message. Le multiplexeur n'est arrêté que s'il a été créé
+     * pour ce seul gestionnaire. L'élu annonce d'abord son départ.
      */
-    private Message receiveMessage(int timeOut) throws SocketTimeoutException,
-                                                       IOException {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-        System.out.println("TIMEOUT: " + timeOut);
-        socket.setSoTimeout(timeOut);
-        System.out.println("WAIT TO RECEIVE");
-        socket.receive(packet);
-        System.out.println("DONE");
-        Message message = Message.BuildMessage(buffer, servers);
-        System.out.println(message + " reçu  du serveur ip : "
-                            + packet.getAddress() + " port "
-                            + packet.getPort());
-        if(message.getMessageType() != MessageType.RESPONSE) {
-            System.out.println("SENDING RESPONSE");
-            sendResponse(packet.getAddress(), packet.getPort());
-            System.out.println("RESPONSE SENT");
+    public void stop() {
+        if (ownsMultiplexer) {
+            multiplexer.stop();
+        } else {
+            stopGroup();
         }
-        cleanBuffer();
-        return message;
     }
     
     /**
-     * vide le buffer en y plaçant des valeurs null
+     * cesse de réagir aux messages de ce groupe. Si nous en sommes l'élu,
+     * notre départ est d'abord annoncé aux autres serveurs pour que notre
+     * premier remplaçant prenne aussitôt notre place.
      */
-    private void cleanBuffer() {
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = 0;
+    void stopGroup() {
+        if (running && phase == Phase.ELECTED_PHASE && elected == mySelf) {
+            multiplexer.announceDeparture(group, epoch);
         }
+        running = false;
     }
-
+    
     /**
      * retourne le temps moyen d'une élection, serait utile aux classe externe
      * souhaitant lancer une élection puis attendre sa résolution,
@@ -375,37 +1015,50 @@ public class ElectionManager implements Runnable {
     }
 
     /**
-     * Lance une nouvelle élection
+     * Lance une nouvelle élection. Peut être appelé depuis n'importe quel
+     * thread, l'élection est démarrée par le thread de l'EventLoop.
+     * Si un tour est déjà en cours, par exemple lancé par un autre serveur
+     * ayant lui aussi détecté la panne de l'élu, on le rejoint plutôt que
+     * d'ouvrir une nouvelle époque.
      */
     void startNewElection() {
-        System.out.println("Lancement d'une nouvelle élection");
-        initialize();
-        try {
-            sendElection(mySelf);
-        } catch (IOException ex) {
-            Logger.getLogger(ElectionManager.class.getName())
-                  .log(Level.SEVERE, null, ex);
-        }
+        eventLoop.execute(this::startOrJoinRound);
     }
-
+    
     /**
-     * Envoie le message RESPONSE
-     * @param address Adresse IP à qui il envoie le message
-     * @param port Port à qui il envoie le message
-     * @throws IOException 
+     * Lance la première élection de ce groupe. Si un autre serveur l'a déjà
+     * lancée, son tour en cours est rejoint ou son résultat adopté, ce qui
+     * évite qu'au démarrage de milliers de groupes chaque serveur rouvre une
+     * époque déjà terminée par les autres. Peut être appelé depuis n'importe
+     * quel thread.
      */
-    private void sendResponse(InetAddress address, int port) throws IOException {
-        ServerDAO choice = null;
-        InetAddressComparator comp = new InetAddressComparator();
-        int i = 0;
-        for (ServerDAO server : servers) {
-            if (comp.compare(server.getIpAdress(), address) == 0
-                    && server.getPort() == port) {
-                choice = new ServerDAO(address, port, i);
+    void startFirstElection() {
+        eventLoop.execute(() -> {
+            if (epoch == 0 || roundTimeout != null) {
+                startOrJoinRound();
             }
-            i++;
+        });
+    }
+    
+    /**
+     * rejoint le tour en cours en y présentant notre candidature si elle est
+     * meilleure que celles déjà relayées, ou ouvre une nouvelle époque
+     */
+    private void startOrJoinRound() {
+        if (roundTimeout != null) {
+            if (bestForwarded == null || isBetter(mySelf, bestForwarded)) {
+                bestForwarded = mySelf;
+                try {
+                    sendElection(mySelf);
+                } catch (IOException ex) {
+                    Logger.getLogger(ElectionManager.class.getName())
+                          .log(Level.SEVERE, null, ex);
+                }
+            }
+            return;
         }
-        sendMessage(new Message(), choice);
+        System.out.println("Lancement d'une nouvelle élection");
+        startRound();
     }
 
 }
@@ -0,0 +1,939 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * point d'accès réseau partagé par plusieurs élections en anneau
+ * indépendantes, une par groupe (par exemple une par partition des données).
+ *
+ * Tous les groupes d'un serveur partagent un seul Transport, donc un seul
+ * socket, et une seule EventLoop: chaque message porte son groupe et est
+ * démultiplexé vers l'ElectionManager correspondant. Ce qui ne dépend que
+ * des serveurs et non des groupes n'existe qu'une fois par processus:
+ * - l'index des adresses et la table des successeurs
+ * - les sondes (PROBE) entretenant l'état des successeurs
+ * - la table des aquittements en attente, une entrée par message en vol
+ * - les métriques publiées par JMX
+ * - l'aptitude de chaque serveur, celle des autres telle qu'annoncée par
+ *   leurs messages et la nôtre échantillonnée par l'AptitudeStrategy
+ *
+ * Un ElectionManager ne retient donc que l'état de son élection (phase,
+ * élu, époque...), quelques centaines de bytes: mémoire et descripteurs
+ * restent stables quand le nombre de groupes augmente.
+ *
+ * En mode multi-groupes la vivacité des élus est elle aussi surveillée par
+ * processus plutôt que par groupe: chaque serveur élu dans au moins un
+ * groupe est sondé toutes les PROBE_PERIOD millisecondes, et une sonde non
+ * aquittée relance l'élection des seuls groupes qu'il dirigeait.
+ *
+ * La topologie peut changer sans redémarrage: un serveur arrivant annonce
+ * son arrivée par un tour de JOIN, et une topologie relue (voir
+ * TopologyFile) est comparée à la nôtre, chaque différence étant annoncée
+ * par un tour de JOIN ou de LEAVE. Un tour s'arrête au premier serveur qui
+ * connaissait déjà le changement. Seules la table des serveurs, les
+ * adresses, leur index et la table des successeurs sont reconstruits.
+ *
+ * Le délai d'attente d'un aquittement s'adapte à chaque serveur: un
+ * RttEstimator mesure le temps d'aller-retour de chaque aquittement et en
+ * déduit le délai de retransmission, doublé à chaque échéance manquée. Un
+ * successeur en panne est ainsi contourné en quelques dizaines de
+ * millisecondes sur un LAN, sans fausse suspicion sur un lien lent.
+ *
+ * Tout message reçu d'un serveur prouve qu'il est vivant: un aquittement
+ * en retard d'un serveur dont on a reçu un message depuis l'envoi, par
+ * exemple parce que sa boucle est chargée par des milliers de groupes, ne
+ * le fait pas considérer en panne, le message lui est alors retransmis.
+ * Un message est abandonné après MAX_ATTEMPTS envois sans aquittement, son
+ * groupe en est averti.
+ *
+ * Les groupes sont numérotés de 0 à getGroupCount() - 1. N'est utilisé que
+ * depuis le thread de l'EventLoop, sauf mention contraire.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class ElectionMultiplexer implements TransportReceiver {
+
+    /**
+     * délai d'attente d'un aquittement en millisecondes tant que le temps
+     * d'aller-retour vers le destinataire n'est pas mesuré
+     */
+    static final int TIME_OUT = 2000;
+    private static final long MAX_RTO = 4L * TIME_OUT;
+    /**
+     * nombre d'envois d'un message sans aquittement avant son abandon
+     */
+    static final int MAX_ATTEMPTS = 8;
+    // trace de chaque message, au niveau FINE pour ne rien allouer sur le
+    // chemin critique quand elle est désactivée
+    private static final Logger TRACE
+            = Logger.getLogger(ElectionMultiplexer.class.getName());
+    private static final long PROBE_PERIOD = 1000;
+    private static final int MIN_PENDING_ACKS = 256;
+    private final ServerDAO mySelf;
+    private ServerDAO[] servers;
+    private final EventLoop eventLoop;
+    private final Transport transport;
+    private InetSocketAddress[] addresses;
+    private PeerIndex peers;
+    private final ByteBuffer responseFrame;
+    private final PendingAckTable pendingAcks;
+    private final SuccessorTable successors;
+    private final ElectorMetrics metrics;
+    private final ElectionManager[] groups;
+    private int[] leaderships;
+    private long[] lastHeard;
+    private final RttEstimator rtt;
+    private final AptitudeStrategy aptitudeStrategy;
+    private int[] aptitudes;
+    private final boolean watchLeaders;
+    private boolean running;
+
+    /**
+     * constructeur du mode multi-groupes, crée un ElectionManager par groupe
+     *
+     * @param ownServer informations sur notre propre serveur
+     * @param servers table de correspondance id->serveur, commune à tous les
+     *                groupes
+     * @param eventLoop boucle d'évènements qui traitera nos messages
+     * @param transportFactory fabrique du transport partagé par les groupes
+     * @param groupCount nombre de groupes d'élection
+     * @throws IOException Si nous ne parvenons pas à créer le transport
+     */
+    public ElectionMultiplexer(ServerDAO ownServer, ServerDAO[] servers,
+                               EventLoop eventLoop,
+                               TransportFactory transportFactory,
+                               int groupCount) throws IOException {
+        this(ownServer, servers, eventLoop, transportFactory, groupCount,
+             StaticAptitude.INSTANCE);
+    }
+
+    /**
+     * constructeur du mode multi-groupes permettant de choisir comment notre
+     * aptitude est calculée
+     *
+     * @param ownServer informations sur notre propre serveur
+     * @param servers table de correspondance id->serveur, commune à tous les
+     *                groupes
+     * @param eventLoop boucle d'évènements qui traitera nos messages
+     * @param transportFactory fabrique du transport partagé par les groupes
+     * @param groupCount nombre de groupes d'élection
+     * @param aptitudeStrategy calcul de notre aptitude, partagé par les
+     *                         groupes
+     * @throws IOException Si nous ne parvenons pas à créer le transport
+     */
+    public ElectionMultiplexer(ServerDAO ownServer, ServerDAO[] servers,
+                               EventLoop eventLoop,
+                               TransportFactory transportFactory,
+                               int groupCount,
+                               AptitudeStrategy aptitudeStrategy)
+                               throws IOException {
+        this(ownServer, servers, eventLoop, transportFactory, groupCount,
+             true, aptitudeStrategy);
+        for (int group = 0; group < groupCount; group++) {
+            new ElectionManager(this, group, false);
+        }
+    }
+
+    /**
+     * constructeur sans groupe, chaque ElectionManager s'y attache lui-même
+     *
+     * @param ownServer informations sur notre propre serveur
+     * @param servers table de correspondance id->serveur
+     * @param eventLoop boucle d'évènements qui traitera nos messages
+     * @param transportFactory fabrique du transport partagé par les groupes
+     * @param groupCount nombre de groupes d'élection
+     * @param watchLeaders true pour sonder les élus et relancer l'élection
+     *                     des groupes dont l'élu ne répond plus
+     * @param aptitudeStrategy calcul de notre aptitude
+     * @throws IOException Si nous ne parvenons pas à créer le transport
+     */
+    ElectionMultiplexer(ServerDAO ownServer, ServerDAO[] servers,
+                        EventLoop eventLoop, TransportFactory transportFactory,
+                        int groupCount, boolean watchLeaders,
+                        AptitudeStrategy aptitudeStrategy)
+                        throws IOException {
+        if (groupCount < 1) {
+            throw new IllegalArgumentException("Au moins un groupe : "
+                                               + groupCount);
+        }
+        this.mySelf = ownServer;
+        this.servers = servers;
+        this.eventLoop = eventLoop;
+        this.watchLeaders = watchLeaders;
+        this.aptitudeStrategy = aptitudeStrategy;
+        addresses = new InetSocketAddress[servers.length];
+        aptitudes = new int[servers.length];
+        for (int index = 0; index < servers.length; index++) {
+            if (servers[index] == null) {
+                continue;
+            }
+            addresses[index] = new InetSocketAddress(
+                    servers[index].getIpAdress(), servers[index].getPort());
+            // jusqu'à ce qu'un message nous l'annonce
+            aptitudes[index] = servers[index].getAptitude();
+        }
+        peers = new PeerIndex(addresses);
+        responseFrame = ByteBuffer.allocate(MessageCodec.MAX_LENGTH);
+        // quelques messages en vol par groupe lors d'une élection
+        int capacity = Math.min(MessageCodec.SEQUENCES,
+                Math.max(MIN_PENDING_ACKS,
+                         Integer.highestOneBit(Math.min(groupCount - 1,
+                                 MessageCodec.SEQUENCES)) << 3));
+        pendingAcks = new PendingAckTable(capacity, aptitudes,
+                                          this::aquitmentTimedOut);
+        groups = new ElectionManager[groupCount];
+        leaderships = new int[servers.length];
+        lastHeard = new long[servers.length];
+        rtt = new RttEstimator(servers.length, TIME_OUT, MAX_RTO);
+        metrics = new ElectorMetrics(this);
+        running = true;
+        int myIndex = peers.indexOf(mySelf.getIpAdress(), mySelf.getPort());
+        if (myIndex == -1 || servers[myIndex].getId() != mySelf.getId()) {
+            throw new RuntimeException("ownServer not contained in servers list");
+        }
+        successors = new SuccessorTable(servers, myIndex);
+        refreshAptitude();
+        publishPeers();
+        transport = transportFactory.open(addresses[myIndex], eventLoop, this);
+        eventLoop.execute(this::probeSuccessors);
+        // les serveurs ne nous connaissant pas encore apprennent notre arrivée
+        eventLoop.execute(() -> announce(MessageType.JOIN, mySelf));
+    }
+
+    /**
+     * enregistre le gestionnaire d'un groupe, appelé par son constructeur
+     *
+     * @param electionManager gestionnaire du groupe
+     * @param group numéro du groupe
+     */
+    void attach(ElectionManager electionManager, int group) {
+        if (groups[group] != null) {
+            throw new IllegalStateException("Groupe déjà attaché : " + group);
+        }
+        groups[group] = electionManager;
+    }
+
+    /**
+     * retourne le gestionnaire d'élection d'un groupe, peut être appelé
+     * depuis n'importe quel thread
+     *
+     * @param group numéro du groupe
+     * @return le gestionnaire d'élection du groupe
+     */
+    public ElectionManager getGroup(int group) {
+        return groups[group];
+    }
+
+    /**
+     * retourne le nombre de groupes d'élection
+     *
+     * @return le nombre de groupes d'élection
+     */
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    /**
+     * lance l'élection de chaque groupe qui n'en a pas encore reçu d'un
+     * autre serveur, peut être appelé depuis n'importe quel thread
+     */
+    public void startElections() {
+        for (ElectionManager group : groups) {
+            group.startFirstElection();
+        }
+    }
+
+    /**
+     * retourne les métriques de ce serveur, communes à tous les groupes
+     *
+     * @return les métriques de ce serveur
+     */
+    public ElectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * retourne la dernière aptitude connue d'un serveur: celle annoncée par
+     * ses messages, ou notre dernier échantillon pour nous-même
+     *
+     * @param server serveur dont on veut l'aptitude
+     * @return l'aptitude du serveur
+     */
+    int aptitudeOf(ServerDAO server) {
+        return aptitudes[server.getId()];
+    }
+
+    /**
+     * retient l'aptitude d'un autre serveur lue dans un message, notre
+     * propre aptitude ne change qu'à l'échantillonnage
+     *
+     * @param server serveur transporté par le message
+     * @param aptitude aptitude annoncée par le message
+     */
+    void aptitudeAnnounced(ServerDAO server, int aptitude) {
+        if (server != mySelf) {
+            aptitudes[server.getId()] = aptitude;
+        }
+    }
+
+    /**
+     * échantillonne notre aptitude par la stratégie, appelé au début de
+     * chaque tour d'élection depuis le thread de l'EventLoop
+     */
+    void refreshAptitude() {
+        int aptitude = aptitudeStrategy.aptitude(mySelf);
+        aptitudes[mySelf.getId()] = aptitude;
+        metrics.aptitudeSampled(aptitude);
+    }
+
+    /**
+     * retourne notre propre serveur
+     *
+     * @return notre propre serveur
+     */
+    ServerDAO getOwnServer() {
+        return mySelf;
+    }
+
+    /**
+     * retourne la table de correspondance id->serveur de l'anneau. Elle
+     * n'est jamais modifiée mais remplacée à chaque changement de topologie,
+     * une case vide (null) est un identifiant qui n'appartient pas ou plus à
+     * l'anneau.
+     *
+     * @return la table de correspondance id->serveur
+     */
+    ServerDAO[] getServers() {
+        return servers;
+    }
+
+    /**
+     * retourne le nombre de serveurs de l'anneau, nous compris
+     *
+     * @return le nombre de serveurs de l'anneau
+     */
+    int getMemberCount() {
+        int members = 0;
+        for (ServerDAO server : servers) {
+            if (server != null) {
+                members++;
+            }
+        }
+        return members;
+    }
+
+    /**
+     * retourne la boucle d'évènements des groupes
+     *
+     * @return la boucle d'évènements
+     */
+    EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * note le changement d'élu d'un groupe, tient à jour le nombre de
+     * groupes dirigés par chaque serveur
+     *
+     * @param previous ancien élu du groupe, null si aucun
+     * @param next nouvel élu du groupe, null si aucun
+     */
+    void leaderChanged(ServerDAO previous, ServerDAO next) {
+        if (previous != null) {
+            leaderships[previous.getId()]--;
+        }
+        if (next != null) {
+            leaderships[next.getId()]++;
+        }
+    }
+
+    /**
+     * sonde en tâche de fond les successeurs en panne précédant le premier
+     * successeur joignable ainsi que ce dernier, et en mode multi-groupes
+     * chaque serveur élu dans au moins un groupe, puis se reprogramme.
+     * Publie au passage les délais de retransmission dans les métriques.
+     */
+    private void probeSuccessors() {
+        if (!running) {
+            return;
+        }
+        publishPeers();
+        List<ServerDAO> targets = successors.probeTargets();
+        for (ServerDAO server : targets) {
+            probe(server);
+        }
+        if (watchLeaders) {
+            for (ServerDAO server : servers) {
+                if (server != null && leaderships[server.getId()] > 0
+                        && !targets.contains(server)) {
+                    probe(server);
+                }
+            }
+        }
+        eventLoop.schedule(PROBE_PERIOD, this::probeSuccessors);
+    }
+
+    /**
+     * envoie une sonde à un autre serveur, son aquittement suffit à prouver
+     * qu'il est vivant
+     *
+     * @param server serveur à sonder
+     */
+    private void probe(ServerDAO server) {
+        if (server == mySelf) {
+            return;
+        }
+        try {
+            send(pendingAcks.register(MessageType.PROBE, 0, mySelf, 0, null,
+                                      0, server, 1));
+        } catch (IOException ex) {
+            Logger.getLogger(ElectionMultiplexer.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * appelé par l'EventLoop pour chaque message reçu: le valide, l'aquitte
+     * et le transmet au gestionnaire de son groupe. Le message est lu sur
+     * place, sans copie. Tout message d'un serveur de l'anneau, retrouvé par
+     * le PeerIndex, prouve que celui-ci est vivant.
+     *
+     * @param data contenu du paquet reçu
+     * @param source adresse de l'expéditeur
+     * @throws IOException Si un soucis de réseau survient ou si le paquet
+     *         ne respecte pas le protocol
+     */
+    @Override
+    public void onReceive(ByteBuffer data, InetSocketAddress source)
+            throws IOException {
+        if (!running) {
+            return;
+        }
+        MessageType messageType = MessageCodec.validate(data);
+        metrics.messageReceived(messageType);
+        int sender = peers.indexOf(source);
+        if (sender >= 0) {
+            successors.markAlive(servers[sender]);
+            lastHeard[sender] = eventLoop.now();
+        }
+        if (messageType == MessageType.RESPONSE) {
+            aquitmentReceived(MessageCodec.sequence(data), sender);
+            return;
+        }
+        int group = MessageCodec.group(data);
+        if (group < 0 || group >= groups.length) {
+            throw new ProtocolException("Groupe inconnu : " + group);
+        }
+        if (messageType != MessageType.PROBE && TRACE.isLoggable(Level.FINE)) {
+            TRACE.fine(MessageCodec.toString(data) + " reçu  du serveur ip : "
+                       + source.getAddress() + " port " + source.getPort());
+        }
+        ServerDAO from = sender >= 0 ? servers[sender] : null;
+        if (messageType == MessageType.HANDOFF) {
+            if (from == null) {
+                // n'étant pas aquitté, un HANDOFF n'a de sens que venant de
+                // l'élu lui-même: une source inconnue ne peut pas le déposer
+                System.out.println("HANDOFF d'une source inconnue ignoré : "
+                                    + source);
+                return;
+            }
+            // l'expéditeur quitte l'anneau: il n'attend pas d'aquittement et
+            // les messages suivants le contournent
+            successors.markDead(from);
+            groups[group].processMessage(messageType, data, from);
+            return;
+        }
+        sendResponse(source, MessageCodec.sequence(data), group,
+                     MessageCodec.version(data));
+        if (messageType == MessageType.JOIN
+                || messageType == MessageType.LEAVE) {
+            // la topologie concerne le processus, aucun groupe n'y réagit
+            membershipReceived(messageType, data, sender, source);
+        } else if (messageType != MessageType.PROBE) {
+            // la sonde concerne le processus, aucun groupe n'y réagit
+            groups[group].processMessage(messageType, data, from);
+        }
+    }
+
+    /**
+     * adopte une nouvelle topologie, par exemple relue dans un fichier:
+     * chaque serveur nouveau ou dont l'adresse a changé rejoint l'anneau,
+     * chaque serveur absent le quitte. Chaque changement est annoncé aux
+     * autres serveurs par un tour de JOIN ou de LEAVE, les élections en
+     * cours se poursuivent sur le nouvel anneau. Notre propre serveur ne
+     * peut pas être retiré ainsi.
+     *
+     * @param topology serveurs de l'anneau, dans n'importe quel ordre
+     */
+    void updateTopology(ServerDAO[] topology) {
+        for (ServerDAO server : topology) {
+            if (server != null && join(server)) {
+                announce(MessageType.JOIN, servers[server.getId()]);
+            }
+        }
+        for (ServerDAO server : servers) {
+            if (server == null || contains(topology, server)) {
+                continue;
+            }
+            if (server == mySelf) {
+                System.out.println("La topologie ne contient plus notre"
+                                    + " serveur " + mySelf.getId()
+                                    + ", il reste dans l'anneau");
+            } else if (leave(server)) {
+                announce(MessageType.LEAVE, server);
+            }
+        }
+    }
+
+    /**
+     * indique si une topologie contient un serveur à la même adresse
+     *
+     * @param topology serveurs de l'anneau
+     * @param server serveur recherché
+     * @return true si la topologie contient le serveur
+     */
+    private static boolean contains(ServerDAO[] topology, ServerDAO server) {
+        for (ServerDAO candidate : topology) {
+            if (server.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * applique un message JOIN ou LEAVE puis le relaie à notre successeur
+     * s'il a changé notre topologie. Le tour s'arrête au premier serveur
+     * qui connaissait déjà le changement, celui-ci l'ayant lui-même annoncé
+     * à ses successeurs.
+     *
+     * Seul un serveur de l'anneau peut relayer un changement. Un arrivant ne
+     * connaît que lui-même et n'est connu de personne: un expéditeur
+     * inconnu ne peut donc qu'annoncer sa propre arrivée, depuis l'adresse
+     * qu'il annonce et sous un identifiant libre. Un serveur redémarré à une
+     * autre adresse sous le même identifiant doit être ajouté par la
+     * topologie (voir TopologyFile). Le protocole n'authentifie pas les
+     * serveurs: le port d'élection ne doit pas être exposé à un réseau non
+     * fiable.
+     *
+     * @param messageType JOIN ou LEAVE
+     * @param data message reçu
+     * @param sender identifiant de l'expéditeur, -1 s'il n'appartient pas à
+     *               l'anneau
+     * @param source adresse de l'expéditeur
+     * @throws ProtocolException si l'adresse du serveur est invalide
+     */
+    private void membershipReceived(MessageType messageType, ByteBuffer data,
+                                    int sender, InetSocketAddress source)
+            throws ProtocolException {
+        ServerDAO member = MessageCodec.member(data);
+        int id = member.getId();
+        if (sender < 0 && !(messageType == MessageType.JOIN
+                && source.equals(new InetSocketAddress(member.getIpAdress(),
+                                                       member.getPort()))
+                && (id >= servers.length || servers[id] == null))) {
+            System.out.println(messageType + " du serveur " + id
+                                + " ignoré, expéditeur inconnu : " + source);
+            return;
+        }
+        if (messageType == MessageType.JOIN) {
+            if (join(member)) {
+                announce(messageType, servers[id]);
+            }
+        } else if (id == mySelf.getId()) {
+            System.out.println("Un serveur nous retire de l'anneau, nous ne"
+                                + " recevrons plus de messages d'élection");
+        } else if (leave(member)) {
+            announce(messageType, member);
+        }
+    }
+
+    /**
+     * ajoute un serveur à l'anneau ou change son adresse
+     *
+     * @param server serveur arrivant
+     * @return true si la topologie a changé
+     */
+    private boolean join(ServerDAO server) {
+        int id = server.getId();
+        if (id < servers.length && server.equals(servers[id])) {
+            return false;
+        }
+        if (id == mySelf.getId()) {
+            System.out.println("Identifiant " + id + " déjà utilisé par notre"
+                                + " serveur, arrivée ignorée");
+            return false;
+        }
+        ServerDAO[] updated = Arrays.copyOf(servers,
+                                            Math.max(servers.length, id + 1));
+        updated[id] = server;
+        adopt(updated);
+        System.out.println("Le serveur " + id + " rejoint l'anneau");
+        return true;
+    }
+
+    /**
+     * retire un serveur de l'anneau, les groupes qu'il dirigeait le
+     * remplacent aussitôt
+     *
+     * @param server serveur partant
+     * @return true si la topologie a changé
+     */
+    private boolean leave(ServerDAO server) {
+        int id = server.getId();
+        if (id == mySelf.getId() || id >= servers.length
+                || !server.equals(servers[id])) {
+            return false;
+        }
+        ServerDAO left = servers[id];
+        ServerDAO[] updated = servers.clone();
+        updated[id] = null;
+        adopt(updated);
+        System.out.println("Le serveur " + id + " quitte l'anneau");
+        if (leaderships[id] > 0) {
+            leaderSuspected(left);
+        }
+        return true;
+    }
+
+    /**
+     * remplace la table des serveurs et reconstruit ce qui en dépend:
+     * adresses, index des adresses et table des successeurs. Les tables
+     * indexées par identifiant ne sont agrandies que si nécessaire.
+     *
+     * @param updated nouvelle table de correspondance id->serveur
+     */
+    private void adopt(ServerDAO[] updated) {
+        int length = updated.length;
+        if (length > aptitudes.length) {
+            aptitudes = Arrays.copyOf(aptitudes, length);
+            leaderships = Arrays.copyOf(leaderships, length);
+            lastHeard = Arrays.copyOf(lastHeard, length);
+            rtt.resize(length);
+            pendingAcks.setAptitudes(aptitudes);
+        }
+        InetSocketAddress[] updatedAddresses = new InetSocketAddress[length];
+        for (int index = 0; index < length; index++) {
+            ServerDAO server = updated[index];
+            if (server == null) {
+                continue;
+            }
+            if (index < servers.length && servers[index] == server) {
+                updatedAddresses[index] = addresses[index];
+            } else {
+                updatedAddresses[index] = new InetSocketAddress(
+                        server.getIpAdress(), server.getPort());
+                aptitudes[index] = server.getAptitude();
+                lastHeard[index] = 0;
+                rtt.reset(index);
+            }
+        }
+        servers = updated;
+        addresses = updatedAddresses;
+        peers = new PeerIndex(addresses);
+        successors.update(updated);
+        publishPeers();
+    }
+
+    /**
+     * lance un tour de JOIN ou de LEAVE à partir de notre successeur
+     *
+     * @param messageType JOIN ou LEAVE
+     * @param member serveur arrivant ou partant
+     */
+    private void announce(MessageType messageType, ServerDAO member) {
+        ServerDAO successor = successors.firstAliveSuccessor();
+        if (successor == mySelf) {
+            return;
+        }
+        try {
+            send(pendingAcks.registerMember(messageType, member, successor));
+        } catch (IOException ex) {
+            Logger.getLogger(ElectionMultiplexer.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Envoie au premier successeur connu vivant un message ELECTION ou
+     * RESULT d'un groupe. Le message reçoit un numéro de séquence et est
+     * encodé dans l'entrée correspondante de la table des aquittements en
+     * attente, avec une échéance adaptée au destinataire. La méthode
+     * retourne immédiatement, les autres messages continuent donc d'être
+     * traités pendant l'attente.
+     *
+     * @param messageType type du message à envoyer
+     * @param group groupe d'élection du message
+     * @param candidat candidat transporté par le message
+     * @param epoch époque de l'élection du groupe
+     * @param standbys remplaçants classés transportés par le message
+     * @param standbyCount nombre de remplaçants
+     * @throws IOException en cas de soucis lors de l'envoie du paquet
+     */
+    void sendToSuccessor(MessageType messageType, int group,
+                         ServerDAO candidat, long epoch, ServerDAO[] standbys,
+                         int standbyCount) throws IOException {
+        sendTo(messageType, group, candidat, epoch, standbys, standbyCount,
+               successors.firstAliveSuccessor());
+    }
+
+    /**
+     * Envoie un message ELECTION ou RESULT d'un groupe à un serveur donné,
+     * avec aquittement. S'il n'est pas aquitté, le message est retransmis
+     * comme les autres au premier successeur connu vivant.
+     *
+     * @param messageType type du message à envoyer
+     * @param group groupe d'élection du message
+     * @param candidat candidat transporté par le message
+     * @param epoch époque de l'élection du groupe
+     * @param standbys remplaçants classés transportés par le message
+     * @param standbyCount nombre de remplaçants
+     * @param destination serveur destinataire
+     * @throws IOException en cas de soucis lors de l'envoie du paquet
+     */
+    void sendTo(MessageType messageType, int group, ServerDAO candidat,
+                long epoch, ServerDAO[] standbys, int standbyCount,
+                ServerDAO destination) throws IOException {
+        send(pendingAcks.register(messageType, group, candidat, epoch,
+                                  standbys, standbyCount, destination, 1));
+    }
+
+    /**
+     * programme l'échéance de retransmission d'une entrée, d'après le temps
+     * d'aller-retour mesuré vers son destinataire, et envoie son message
+     *
+     * @param ack entrée de la table des aquittements en attente
+     * @throws IOException en cas de soucis lors de l'envoie du paquet
+     */
+    private void send(PendingAckTable.PendingAck ack) throws IOException {
+        ack.arm(eventLoop.schedule(rtt.timeout(ack.destination.getId()),
+                                   ack));
+        ack.sentAt = System.nanoTime();
+        ack.frame.rewind();
+        metrics.messageSent(ack.getMessageType());
+        transport.send(ack.frame, addresses[ack.destination.getId()]);
+        // le transport a consommé le buffer, les lectures se font depuis 0
+        ack.frame.rewind();
+        if (TRACE.isLoggable(Level.FINE)
+                && ack.getMessageType() != MessageType.PROBE) {
+            TRACE.fine("Message AVEC aquittement "
+                       + MessageCodec.toString(ack.frame)
+                       + " envoyé au serveur ip "
+                       + ack.destination.getIpAdress()
+                       + " port " + ack.destination.getPort());
+        }
+    }
+
+    /**
+     * appelé à la réception d'une RESPONSE, retire le message aquitté
+     * de la table des aquittements en attente et mesure le temps
+     * d'aller-retour vers son destinataire
+     *
+     * @param sequence numéro de séquence du message aquitté
+     * @param sender identifiant de l'expéditeur de la RESPONSE, -1 s'il
+     *               n'appartient pas à l'anneau
+     */
+    private void aquitmentReceived(int sequence, int sender) {
+        PendingAckTable.PendingAck ack = pendingAcks.acknowledge(sequence,
+                                                                 sender);
+        if (ack != null) {
+            successors.markAlive(ack.destination);
+            rtt.sample(ack.destination.getId(),
+                       TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+                                                     - ack.sentAt));
+        }
+    }
+
+    /**
+     * appelé par l'EventLoop si aucune RESPONSE n'est délivrée avant
+     * l'échéance, le délai du destinataire est doublé. Il est noté en panne
+     * s'il est resté silencieux depuis l'envoi et le message est retransmis
+     * au premier successeur connu vivant, qui reste le destinataire s'il
+     * n'est que lent. Une sonde n'est pas retransmise, et un message envoyé
+     * MAX_ATTEMPTS fois est abandonné.
+     *
+     * @param ack entrée du message non aquitté
+     */
+    private void aquitmentTimedOut(PendingAckTable.PendingAck ack) {
+        System.out.println("ERROR");
+        metrics.ackTimeout();
+        int destination = ack.destination.getId();
+        rtt.timedOut(destination);
+        if (lastHeard[destination]
+                < TimeUnit.NANOSECONDS.toMillis(ack.sentAt)) {
+            successors.markDead(ack.destination);
+            if (watchLeaders && leaderships[destination] > 0) {
+                leaderSuspected(ack.destination);
+            }
+        }
+        if (ack.getMessageType() == MessageType.PROBE) {
+            pendingAcks.release(ack);
+            return;
+        }
+        ServerDAO destServer = successors.firstAliveSuccessor();
+        try {
+            if (destServer == mySelf) {
+                pendingAcks.release(ack);
+                if (ack.getMessageType() == MessageType.ELECTION
+                        || ack.getMessageType() == MessageType.RESULT) {
+                    groups[ack.group].alone();
+                }
+            } else if (ack.attempts >= MAX_ATTEMPTS) {
+                pendingAcks.release(ack);
+                abandon(ack);
+            } else {
+                metrics.retransmission();
+                PendingAckTable.PendingAck retry
+                        = pendingAcks.retransmit(ack, destServer);
+                pendingAcks.release(ack);
+                send(retry);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ElectionMultiplexer.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * abandonne un message que personne n'a aquitté après MAX_ATTEMPTS
+     * envois, son groupe en est averti s'il s'agit d'un message d'élection
+     *
+     * @param ack entrée du message abandonné, déjà libérée
+     */
+    private void abandon(PendingAckTable.PendingAck ack) {
+        MessageType messageType = ack.getMessageType();
+        System.out.println("Message " + messageType + " abandonné après "
+                            + ack.attempts + " envois");
+        metrics.messageAbandoned();
+        if (messageType == MessageType.ELECTION
+                || messageType == MessageType.RESULT) {
+            groups[ack.group].undelivered(MessageCodec.epoch(ack.frame));
+        }
+    }
+
+    /**
+     * annonce à chacun des autres serveurs notre départ volontaire de l'élu
+     * d'un groupe. Le message HANDOFF n'est pas aquitté, nous ne serions
+     * plus là pour le retransmettre: sa perte ramène seulement un serveur à
+     * la détection de panne de l'élu.
+     *
+     * @param group groupe dont nous sommes l'élu
+     * @param epoch époque de notre élection
+     */
+    void announceDeparture(int group, long epoch) {
+        MessageCodec.encode(responseFrame, MessageType.HANDOFF, group, mySelf,
+                            epoch, 0);
+        for (ServerDAO server : servers) {
+            if (server == null || server == mySelf) {
+                continue;
+            }
+            metrics.messageSent(MessageType.HANDOFF);
+            try {
+                transport.send(responseFrame.duplicate(),
+                               addresses[server.getId()]);
+            } catch (IOException ex) {
+                Logger.getLogger(ElectionMultiplexer.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * note un serveur suspecté par un détecteur de panne comme en panne dans
+     * la table des successeurs, les messages suivants le contournent sans
+     * attendre TIME_OUT. Il redevient vivant dès qu'il nous envoie un message.
+     * 
+     * @param server serveur suspecté
+     */
+    void serverSuspected(ServerDAO server) {
+        successors.markDead(server);
+    }
+
+    /**
+     * retourne l'état connu d'un serveur dans la table des successeurs
+     *
+     * @param server serveur de l'anneau
+     * @return l'état connu du serveur
+     */
+    PeerState peerState(ServerDAO server) {
+        return successors.getState(server);
+    }
+
+    /**
+     * publie dans les métriques le nombre de serveurs de l'anneau et le
+     * délai d'attente courant d'un aquittement de chacun des autres: les
+     * tables de l'EventLoop ne sont jamais lues depuis le thread de JMX
+     */
+    private void publishPeers() {
+        Map<String, Long> timeouts = new LinkedHashMap<>();
+        for (ServerDAO server : servers) {
+            if (server != null && server != mySelf) {
+                timeouts.put(String.valueOf(server.getId()),
+                             rtt.timeout(server.getId()));
+            }
+        }
+        metrics.peersChanged(getMemberCount(),
+                             Collections.unmodifiableMap(timeouts));
+    }
+
+    /**
+     * relance l'élection de chaque groupe dirigé par un serveur qui ne
+     * répond plus
+     *
+     * @param leader élu ne répondant plus
+     */
+    private void leaderSuspected(ServerDAO leader) {
+        System.out.println("L'élu " + leader.getId() + " ne répond plus");
+        long now = eventLoop.now();
+        for (ElectionManager group : groups) {
+            if (group.isElected(leader)) {
+                group.leaderSuspected(leader, now);
+            }
+        }
+    }
+
+    /**
+     * Envoie le message RESPONSE directement à l'expéditeur du message
+     * aquitté, à travers un buffer réutilisé
+     *
+     * @param source adresse de l'expéditeur du message aquitté
+     * @param sequence numéro de séquence du message aquitté
+     * @param group groupe d'élection du message aquitté
+     * @param version format du message aquitté
+     * @throws IOException en cas de soucis lors de l'envoie du paquet
+     */
+    private void sendResponse(InetSocketAddress source, int sequence,
+                              int group, int version) throws IOException {
+        MessageCodec.encodeResponse(responseFrame, sequence, group, version);
+        metrics.messageSent(MessageType.RESPONSE);
+        transport.send(responseFrame, source);
+    }
+
+    /**
+     * permet de stopper proprement tous les groupes et donc d'arrêter
+     * l'écoute de message
+     */
+    public void stop() {
+        running = false;
+        for (ElectionManager group : groups) {
+            group.stopGroup();
+        }
+        try {
+            transport.close();
+        } catch (IOException ex) {
+            Logger.getLogger(ElectionMultiplexer.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+}
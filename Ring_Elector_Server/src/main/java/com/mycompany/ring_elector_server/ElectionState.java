@@ -0,0 +1,110 @@
+package com.mycompany.ring_elector_server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * instantané immuable de l'état de l'élection d'un serveur: phase, élu,
+ * époque et remplaçants désignés de l'élu.
+ *
+ * Un nouvel instantané est publié par l'EventLoop à chaque changement, il
+ * peut donc être lu depuis n'importe quel thread sans verrou ni exception.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public final class ElectionState {
+
+    private final Phase phase;
+    private final ServerDAO elected;
+    private final long epoch;
+    private final List<ServerDAO> standbys;
+
+    /**
+     * constructeur
+     *
+     * @param phase phase de l'élection
+     * @param elected élu, null tant que l'élection n'est pas terminée
+     * @param epoch époque de l'élection
+     * @param standbys remplaçants de l'élu du meilleur au moins bon, le
+     *                 tableau ne doit plus être modifié
+     */
+    ElectionState(Phase phase, ServerDAO elected, long epoch,
+                  ServerDAO[] standbys) {
+        this.phase = phase;
+        this.elected = elected;
+        this.epoch = epoch;
+        this.standbys = standbys.length == 0
+                        ? Collections.<ServerDAO>emptyList()
+                        : Collections.unmodifiableList(Arrays.asList(standbys));
+    }
+
+    /**
+     * retourne la phase de l'élection
+     *
+     * @return la phase de l'élection
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * retourne l'élu
+     *
+     * @return l'élu, null tant que l'élection n'est pas terminée
+     */
+    public ServerDAO getElected() {
+        return elected;
+    }
+
+    /**
+     * retourne l'époque de l'élection
+     *
+     * @return l'époque de l'élection
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * retourne les remplaçants désignés par la dernière élection, dans
+     * l'ordre où ils prendraient la place de l'élu
+     *
+     * @return les remplaçants du meilleur au moins bon, vide si inconnus
+     */
+    public List<ServerDAO> getStandbys() {
+        return standbys;
+    }
+
+    /**
+     * indique si l'élection est terminée
+     *
+     * @return true si l'élection est terminée et l'élu connu
+     */
+    public boolean isComplete() {
+        return phase == Phase.ELECTED_PHASE && elected != null;
+    }
+
+    /**
+     * indique si l'élection est terminée et a désigné server
+     *
+     * @param server serveur dont on veut savoir s'il est l'élu
+     * @return true si l'élection est terminée et que server est l'élu
+     */
+    public boolean isElected(ServerDAO server) {
+        return isComplete() && elected == server;
+    }
+
+    /**
+     * redéfinit l'impression avec println de cette class
+     *
+     * @return un string représentant cet état
+     */
+    @Override
+    public String toString() {
+        return " Phase : " + phase.name()
+                + " élu : " + (elected == null ? "aucun" : elected.getId())
+                + " époque : " + epoch
+                + " remplaçants : " + standbys.size();
+    }
+}
@@ -0,0 +1,415 @@
+package com.mycompany.ring_elector_server;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * registre des métriques d'un serveur de l'anneau, exposé par JMX.
+ *
+ * Les compteurs sont incrémentés depuis le thread de l'EventLoop et lus par
+ * JMX depuis un autre thread, d'où l'usage de compteurs atomiques. Les
+ * tables de l'EventLoop (serveurs, aptitudes, temps d'aller-retour) ne sont
+ * jamais lues depuis JMX: le multiplexeur publie à chaque changement une
+ * copie de ce qui en est exposé dans des champs volatiles, comme chaque
+ * ElectionManager publie son ElectionState.
+ * Les durées en millisecondes sont mesurées par chaque ElectionManager
+ * avec EventLoop.now().
+ *
+ * Un seul registre existe par ElectionMultiplexer: les compteurs cumulent
+ * les messages et élections de tous les groupes, la phase et l'élu publiés
+ * sont ceux du groupe 0.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class ElectorMetrics implements ElectorMetricsMXBean {
+
+    private final ElectionMultiplexer multiplexer;
+    private final MessageType[] messageTypes;
+    private final AtomicLongArray messagesSent;
+    private final AtomicLongArray messagesReceived;
+    private final AtomicLong retransmissions;
+    private final AtomicLong ackTimeouts;
+    private final AtomicLong abandonedMessages;
+    private final AtomicLong staleMessages;
+    private final AtomicLong pingsSent;
+    private final AtomicLong pingsMissed;
+    private final AtomicLong electionsStarted;
+    private final AtomicLong electionsCompleted;
+    private final AtomicLong standbyTakeovers;
+    private final AtomicLong preemptions;
+    private final AtomicLong warmRestarts;
+    private final LatencyHistogram electionDuration;
+    private final LatencyHistogram failoverTime;
+    private volatile PingResponder pingResponder;
+    private volatile LeaderLookupService lookupService;
+    private volatile int aptitude;
+    private volatile int members;
+    private volatile Map<String, Long> retransmissionTimeouts;
+    private ObjectName objectName;
+
+    /**
+     * constructeur
+     *
+     * @param multiplexer multiplexeur dont on publie les groupes
+     */
+    ElectorMetrics(ElectionMultiplexer multiplexer) {
+        this.multiplexer = multiplexer;
+        messageTypes = MessageType.values();
+        messagesSent = new AtomicLongArray(messageTypes.length);
+        messagesReceived = new AtomicLongArray(messageTypes.length);
+        retransmissions = new AtomicLong();
+        ackTimeouts = new AtomicLong();
+        abandonedMessages = new AtomicLong();
+        staleMessages = new AtomicLong();
+        pingsSent = new AtomicLong();
+        pingsMissed = new AtomicLong();
+        electionsStarted = new AtomicLong();
+        electionsCompleted = new AtomicLong();
+        standbyTakeovers = new AtomicLong();
+        preemptions = new AtomicLong();
+        warmRestarts = new AtomicLong();
+        electionDuration = new LatencyHistogram();
+        failoverTime = new LatencyHistogram();
+    }
+
+    /**
+     * enregistre ces métriques auprès du serveur JMX de la plateforme
+     *
+     * @param serverId identifiant du serveur, distingue les instances
+     *                 co-hébergées dans la même JVM
+     */
+    public void register(int serverId) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(
+                    "com.mycompany.ring_elector_server:type=ElectorMetrics,id="
+                    + serverId);
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException ex) {
+            objectName = null;
+            Logger.getLogger(ElectorMetrics.class.getName())
+                  .log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * retire ces métriques du serveur JMX
+     */
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            Logger.getLogger(ElectorMetrics.class.getName())
+                  .log(Level.WARNING, null, ex);
+        }
+        objectName = null;
+    }
+
+    /**
+     * branche le répondeur dont on publie le nombre de pings répondus
+     *
+     * @param pingResponder répondeur aux pings de ce serveur
+     */
+    void setPingResponder(PingResponder pingResponder) {
+        this.pingResponder = pingResponder;
+    }
+
+    /**
+     * branche le service dont on publie les requêtes et abonnés
+     *
+     * @param lookupService service de recherche de l'élu de ce serveur
+     */
+    void setLookupService(LeaderLookupService lookupService) {
+        this.lookupService = lookupService;
+    }
+
+    /**
+     * compte un message envoyé
+     *
+     * @param type type du message
+     */
+    void messageSent(MessageType type) {
+        messagesSent.incrementAndGet(type.ordinal());
+    }
+
+    /**
+     * compte un message reçu et validé
+     *
+     * @param type type du message
+     */
+    void messageReceived(MessageType type) {
+        messagesReceived.incrementAndGet(type.ordinal());
+    }
+
+    /**
+     * compte un message retransmis faute d'aquittement
+     */
+    void retransmission() {
+        retransmissions.incrementAndGet();
+    }
+
+    /**
+     * compte un aquittement non reçu avant son échéance
+     */
+    void ackTimeout() {
+        ackTimeouts.incrementAndGet();
+    }
+
+    /**
+     * compte un message abandonné après MAX_ATTEMPTS envois
+     */
+    void messageAbandoned() {
+        abandonedMessages.incrementAndGet();
+    }
+
+    /**
+     * compte un message périmé, d'une époque ou d'un élu dépassés
+     */
+    void staleMessage() {
+        staleMessages.incrementAndGet();
+    }
+
+    /**
+     * compte un ping envoyé à l'élu
+     */
+    void pingSent() {
+        pingsSent.incrementAndGet();
+    }
+
+    /**
+     * compte un ping resté sans réponse avant le ping suivant
+     */
+    void pingMissed() {
+        pingsMissed.incrementAndGet();
+    }
+
+    /**
+     * compte une reprise de l'élu par un remplaçant
+     */
+    void standbyTakeover() {
+        standbyTakeovers.incrementAndGet();
+    }
+
+    /**
+     * compte le remplacement d'un élu vivant par un serveur plus apte
+     */
+    void preemption() {
+        preemptions.incrementAndGet();
+    }
+
+    /**
+     * compte un redémarrage repris d'un instantané sans élection
+     */
+    void warmRestart() {
+        warmRestarts.incrementAndGet();
+    }
+
+    /**
+     * compte le début de l'élection d'un groupe
+     */
+    void electionStarted() {
+        electionsStarted.incrementAndGet();
+    }
+
+    /**
+     * publie notre aptitude, appelé à chaque échantillonnage depuis le
+     * thread de l'EventLoop
+     *
+     * @param aptitude notre dernière aptitude échantillonnée
+     */
+    void aptitudeSampled(int aptitude) {
+        this.aptitude = aptitude;
+    }
+
+    /**
+     * publie l'état des autres serveurs, appelé depuis le thread de
+     * l'EventLoop à chaque changement de topologie et à chaque sonde
+     *
+     * @param members nombre de serveurs de l'anneau, nous compris
+     * @param retransmissionTimeouts délai d'attente d'un aquittement en
+     *                               millisecondes par identifiant de
+     *                               serveur, non modifiable
+     */
+    void peersChanged(int members, Map<String, Long> retransmissionTimeouts) {
+        this.members = members;
+        this.retransmissionTimeouts = retransmissionTimeouts;
+    }
+
+    /**
+     * note la fin de l'élection d'un groupe
+     *
+     * @param duration durée de l'élection en millisecondes, -1 si inconnue
+     * @param failover temps depuis la suspicion de l'élu en millisecondes,
+     *                 -1 si l'élection ne suit pas une suspicion
+     */
+    void electionCompleted(long duration, long failover) {
+        electionsCompleted.incrementAndGet();
+        if (duration >= 0) {
+            electionDuration.record(duration);
+        }
+        if (failover >= 0) {
+            failoverTime.record(failover);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSent() {
+        return byType(messagesSent);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesReceived() {
+        return byType(messagesReceived);
+    }
+
+    @Override
+    public long getRetransmissions() {
+        return retransmissions.get();
+    }
+
+    @Override
+    public long getAckTimeouts() {
+        return ackTimeouts.get();
+    }
+
+    @Override
+    public long getAbandonedMessages() {
+        return abandonedMessages.get();
+    }
+
+    @Override
+    public long getStaleMessages() {
+        return staleMessages.get();
+    }
+
+    @Override
+    public long getPingsSent() {
+        return pingsSent.get();
+    }
+
+    @Override
+    public long getPingsAnswered() {
+        PingResponder responder = pingResponder;
+        return responder == null ? 0 : responder.getAnswered();
+    }
+
+    @Override
+    public long getPingsMissed() {
+        return pingsMissed.get();
+    }
+
+    @Override
+    public long getLookupsAnswered() {
+        LeaderLookupService service = lookupService;
+        return service == null ? 0 : service.getAnswered();
+    }
+
+    @Override
+    public int getLookupSubscribers() {
+        LeaderLookupService service = lookupService;
+        return service == null ? 0 : service.getSubscribers();
+    }
+
+    @Override
+    public long getElectionsStarted() {
+        return electionsStarted.get();
+    }
+
+    @Override
+    public long getElectionsCompleted() {
+        return electionsCompleted.get();
+    }
+
+    @Override
+    public long getStandbyTakeovers() {
+        return standbyTakeovers.get();
+    }
+
+    @Override
+    public long getPreemptions() {
+        return preemptions.get();
+    }
+
+    @Override
+    public long getWarmRestarts() {
+        return warmRestarts.get();
+    }
+
+    @Override
+    public Map<String, Long> getElectionDuration() {
+        return electionDuration.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getFailoverTime() {
+        return failoverTime.snapshot();
+    }
+
+    @Override
+    public String getPhase() {
+        return multiplexer.getGroup(0).getState().getPhase().name();
+    }
+
+    @Override
+    public int getElectedId() {
+        ElectionState state = multiplexer.getGroup(0).getState();
+        return state.isComplete() ? state.getElected().getId() : -1;
+    }
+
+    @Override
+    public int getAptitude() {
+        return aptitude;
+    }
+
+    @Override
+    public int getGroups() {
+        return multiplexer.getGroupCount();
+    }
+
+    @Override
+    public int getMembers() {
+        return members;
+    }
+
+    @Override
+    public Map<String, Long> getRetransmissionTimeouts() {
+        return retransmissionTimeouts;
+    }
+
+    @Override
+    public int getGroupsElected() {
+        // seul l'ElectionState publié de chaque groupe est lu
+        int elected = 0;
+        for (int group = 0; group < multiplexer.getGroupCount(); group++) {
+            if (multiplexer.getGroup(group).getState().isComplete()) {
+                elected++;
+            }
+        }
+        return elected;
+    }
+
+    /**
+     * associe chaque compteur au nom de son MessageType
+     *
+     * @param counters compteurs indexés par ordinal
+     * @return les compteurs par nom de type
+     */
+    private Map<String, Long> byType(AtomicLongArray counters) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (MessageType type : messageTypes) {
+            values.put(type.name(), counters.get(type.ordinal()));
+        }
+        return values;
+    }
+}
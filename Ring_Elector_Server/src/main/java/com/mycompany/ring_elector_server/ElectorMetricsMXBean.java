@@ -0,0 +1,146 @@
+package com.mycompany.ring_elector_server;
+
+import java.util.Map;
+
+/**
+ * interface JMX des métriques d'un serveur de l'anneau
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface ElectorMetricsMXBean {
+
+    /**
+     * @return le nombre de messages d'élection envoyés par MessageType
+     */
+    Map<String, Long> getMessagesSent();
+
+    /**
+     * @return le nombre de messages d'élection reçus par MessageType
+     */
+    Map<String, Long> getMessagesReceived();
+
+    /**
+     * @return le nombre de messages retransmis faute d'aquittement
+     */
+    long getRetransmissions();
+
+    /**
+     * @return le nombre d'aquittements non reçus à temps
+     */
+    long getAckTimeouts();
+
+    /**
+     * @return le nombre de messages abandonnés après MAX_ATTEMPTS envois
+     *         sans aquittement
+     */
+    long getAbandonedMessages();
+
+    /**
+     * @return le nombre de messages ELECTION ou RESULT ignorés car d'une
+     *         époque dépassée
+     */
+    long getStaleMessages();
+
+    /**
+     * @return le nombre de pings envoyés à l'élu
+     */
+    long getPingsSent();
+
+    /**
+     * @return le nombre de pings répondus en tant qu'élu
+     */
+    long getPingsAnswered();
+
+    /**
+     * @return le nombre de pings restés sans réponse
+     */
+    long getPingsMissed();
+
+    /**
+     * @return le nombre de requêtes de clients cherchant l'élu répondues
+     */
+    long getLookupsAnswered();
+
+    /**
+     * @return le nombre de clients abonnés aux changements d'élu
+     */
+    int getLookupSubscribers();
+
+    /**
+     * @return le nombre d'élections démarrées par ce serveur ou auxquelles
+     *         il a pris part
+     */
+    long getElectionsStarted();
+
+    /**
+     * @return le nombre d'élections terminées vues par ce serveur
+     */
+    long getElectionsCompleted();
+
+    /**
+     * @return le nombre de reprises de l'élu par son premier remplaçant, sans
+     *         élection complète
+     */
+    long getStandbyTakeovers();
+
+    /**
+     * @return le nombre d'élections que nous avons lancées contre un élu
+     *         vivant moins apte
+     */
+    long getPreemptions();
+
+    /**
+     * @return le nombre de démarrages ayant repris l'élu d'un instantané
+     *         sans élection
+     */
+    long getWarmRestarts();
+
+    /**
+     * @return nombre, moyenne, percentiles et maximum de la durée des
+     *         élections en millisecondes
+     */
+    Map<String, Long> getElectionDuration();
+
+    /**
+     * @return nombre, moyenne, percentiles et maximum du temps entre la
+     *         suspicion de l'élu et la fin de l'élection suivante
+     */
+    Map<String, Long> getFailoverTime();
+
+    /**
+     * @return la phase courante de l'élection du groupe 0
+     */
+    String getPhase();
+
+    /**
+     * @return l'identifiant de l'élu du groupe 0, -1 si l'élection n'est pas
+     *         terminée
+     */
+    int getElectedId();
+
+    /**
+     * @return notre aptitude échantillonnée au début de la dernière élection
+     */
+    int getAptitude();
+
+    /**
+     * @return nombre de groupes d'élection de ce serveur
+     */
+    int getGroups();
+
+    /**
+     * @return nombre de serveurs de l'anneau, nous compris
+     */
+    int getMembers();
+
+    /**
+     * @return délai d'attente courant d'un aquittement en millisecondes par
+     *         identifiant de serveur, déduit du temps d'aller-retour mesuré
+     */
+    Map<String, Long> getRetransmissionTimeouts();
+
+    /**
+     * @return nombre de groupes dont l'élection est terminée
+     */
+    int getGroupsElected();
+}
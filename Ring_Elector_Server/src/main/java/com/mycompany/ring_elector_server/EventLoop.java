@@ -0,0 +1,232 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Boucle d'évènements mono-thread basée sur un Selector.
+ *
+ * Un seul thread gère tous les DatagramChannel enregistrés (élection, ping...)
+ * ainsi que les échéances (timeouts). Les timeouts ne sont donc plus
+ * détectés par des SocketTimeoutException mais par la boucle elle-même qui
+ * borne son attente sur la prochaine échéance.
+ *
+ * Les échéances sont rangées dans une HashedTimingWheel: l'insertion et
+ * l'annulation sont en O(1), ce qui permet de suivre des milliers
+ * d'aquittements, de pings et d'élections en attente.
+ *
+ * Les autres threads peuvent soumettre des tâches avec execute(), elles sont
+ * alors exécutées par le thread de la boucle.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class EventLoop implements Runnable {
+
+    private static final long TICK_DURATION = 10;
+    private static final int TICKS_PER_WHEEL = 512;
+    private final Selector selector;
+    private final HashedTimingWheel timers;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    /**
+     * constructeur avec une roue de 512 ticks de 10 ms
+     *
+     * @throws IOException Si on ne parvient pas à ouvrir le Selector
+     */
+    public EventLoop() throws IOException {
+        this(TICK_DURATION, TICKS_PER_WHEEL);
+    }
+
+    /**
+     * constructeur
+     *
+     * @param tickDuration précision des échéances en millisecondes
+     * @param ticksPerWheel nombre de cases de la roue temporelle
+     * @throws IOException Si on ne parvient pas à ouvrir le Selector
+     */
+    public EventLoop(long tickDuration, int ticksPerWheel) throws IOException {
+        selector = Selector.open();
+        timers = new HashedTimingWheel(tickDuration, ticksPerWheel, now());
+        tasks = new ConcurrentLinkedQueue<>();
+        running = true;
+    }
+
+    /**
+     * enregistre un channel dont les paquets seront traités par handler.
+     * Le channel est passé en mode non bloquant.
+     *
+     * Doit être appelé avant le démarrage de la boucle ou depuis son thread.
+     *
+     * @param channel channel à surveiller
+     * @param handler callback appelé lorsque le channel est lisible
+     * @throws IOException Si l'enregistrement échoue
+     */
+    public void register(DatagramChannel channel, DatagramHandler handler)
+            throws IOException {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, handler);
+    }
+
+    /**
+     * programme une tâche à exécuter dans delay millisecondes.
+     * Doit être appelé depuis le thread de la boucle.
+     *
+     * @param delay délai en millisecondes avant l'exécution
+     * @param task tâche à exécuter
+     * @return l'échéance permettant d'annuler la tâche
+     */
+    public Timeout schedule(long delay, Runnable task) {
+        return timers.schedule(now(), delay, task);
+    }
+
+    /**
+     * soumet une tâche à exécuter par le thread de la boucle.
+     * Peut être appelé depuis n'importe quel thread.
+     *
+     * @param task tâche à exécuter
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * indique si le thread courant est celui de la boucle
+     *
+     * @return true si l'appel est fait depuis la boucle
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * horloge monotone de la boucle en millisecondes
+     *
+     * @return le temps courant en millisecondes
+     */
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * boucle principale: attend les paquets jusqu'à la prochaine échéance,
+     * puis exécute les handlers, les échéances expirées et les tâches soumises
+     */
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (running) {
+            try {
+                select();
+                processSelectedKeys();
+                runExpiredTimers();
+                runTasks();
+            } catch (IOException ex) {
+                Logger.getLogger(EventLoop.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+        }
+        // dernières tâches soumises avec stop() (fermeture des channels...)
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            Logger.getLogger(EventLoop.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * permet de stopper proprement la boucle
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * attend qu'un channel soit lisible sans dépasser la prochaine échéance
+     *
+     * @throws IOException Si le Selector rencontre un problème
+     */
+    private void select() throws IOException {
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+        long delay = timers.nextExpiryDelay(now());
+        if (delay < 0) {
+            selector.select();
+        } else if (delay > 0) {
+            selector.select(delay);
+        } else {
+            selector.selectNow();
+        }
+    }
+
+    /**
+     * transmet les channels lisibles à leur handler
+     */
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid() || !key.isReadable()) {
+                continue;
+            }
+            DatagramHandler handler = (DatagramHandler) key.attachment();
+            try {
+                handler.onReadable((DatagramChannel) key.channel());
+            } catch (ClosedChannelException ex) {
+                key.cancel();
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(EventLoop.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * exécute toutes les échéances arrivées à terme
+     */
+    private void runExpiredTimers() {
+        timers.advance(now(), this::runSafely);
+    }
+
+    /**
+     * exécute les tâches soumises par les autres threads
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runSafely(task);
+        }
+    }
+
+    /**
+     * exécute une tâche sans laisser une exception arrêter la boucle
+     *
+     * @param task tâche à exécuter
+     */
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            Logger.getLogger(EventLoop.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.mycompany.ring_elector_server;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Roue temporelle hachée (hashed timing wheel) gérant toutes les échéances
+ * du protocole: aquittements, pings, élections...
+ *
+ * Le temps est découpé en ticks de tickDuration millisecondes et la roue
+ * possède un nombre de cases (puissance de 2). Une échéance est rangée dans
+ * la case correspondant à son tick d'expiration avec le nombre de tours
+ * de roue restant. L'insertion et l'annulation se font en O(1) grâce à des
+ * listes doublement chaînées, sans thread ni exception par échéance.
+ *
+ * Une échéance n'expire jamais en avance, au plus tickDuration en retard.
+ *
+ * N'est pas thread-safe: la roue est pilotée par le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class HashedTimingWheel {
+
+    private final long tickDuration;
+    private final WheelTimeout[] buckets;
+    private final int mask;
+    private final long startTime;
+    private final ArrayDeque<WheelTimeout> expired;
+    private long currentTick;
+    private int size;
+
+    /**
+     * constructeur
+     *
+     * @param tickDuration durée d'un tick en millisecondes
+     * @param ticksPerWheel nombre de cases de la roue, arrondi à la puissance
+     *                      de 2 supérieure
+     * @param now temps courant en millisecondes, origine des ticks
+     */
+    public HashedTimingWheel(long tickDuration, int ticksPerWheel, long now) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickDuration et ticksPerWheel"
+                    + " doivent être positifs");
+        }
+        int wheelSize = Integer.highestOneBit(ticksPerWheel);
+        if (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        this.tickDuration = tickDuration;
+        this.buckets = new WheelTimeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startTime = now;
+        this.expired = new ArrayDeque<>();
+    }
+
+    /**
+     * programme une tâche à exécuter après delay millisecondes
+     *
+     * @param now temps courant en millisecondes
+     * @param delay délai en millisecondes avant l'exécution
+     * @param task tâche à exécuter
+     * @return l'échéance permettant d'annuler la tâche en O(1)
+     */
+    public Timeout schedule(long now, long delay, Runnable task) {
+        long deadlineTick = (now + Math.max(delay, 0) - startTime) / tickDuration;
+        long ticks = Math.max(deadlineTick, currentTick);
+        WheelTimeout timeout = new WheelTimeout(this, task,
+                                        (ticks - currentTick) / buckets.length,
+                                        (int) (ticks & mask));
+        link(timeout);
+        return timeout;
+    }
+
+    /**
+     * fait avancer la roue jusqu'au temps donné et exécute les tâches
+     * dont l'échéance est passée
+     *
+     * @param now temps courant en millisecondes
+     * @param runner exécute chaque tâche expirée
+     */
+    public void advance(long now, Consumer<Runnable> runner) {
+        while (startTime + (currentTick + 1) * tickDuration <= now) {
+            expireBucket((int) (currentTick & mask));
+            currentTick++;
+            WheelTimeout timeout;
+            while ((timeout = expired.poll()) != null) {
+                if (!timeout.cancelled) {
+                    runner.accept(timeout.task);
+                }
+            }
+        }
+    }
+
+    /**
+     * calcule le délai avant le prochain tick dont la case n'est pas vide,
+     * permet à l'EventLoop de ne se réveiller que lorsque c'est nécessaire
+     *
+     * @param now temps courant en millisecondes
+     * @return le délai en millisecondes, -1 si aucune échéance n'est programmée
+     */
+    public long nextExpiryDelay(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[(int) ((currentTick + i) & mask)] != null) {
+                return Math.max(0,
+                        startTime + (currentTick + i + 1) * tickDuration - now);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * retourne le nombre d'échéances programmées
+     *
+     * @return le nombre d'échéances programmées
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * retire de la case les échéances arrivées à leur dernier tour et
+     * décrémente le nombre de tours des autres
+     *
+     * @param index case à traiter
+     */
+    private void expireBucket(int index) {
+        WheelTimeout timeout = buckets[index];
+        while (timeout != null) {
+            WheelTimeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                unlink(timeout);
+                expired.add(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * insère l'échéance en tête de sa case
+     *
+     * @param timeout échéance à insérer
+     */
+    private void link(WheelTimeout timeout) {
+        WheelTimeout head = buckets[timeout.bucket];
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        timeout.linked = true;
+        size++;
+    }
+
+    /**
+     * retire l'échéance de sa case
+     *
+     * @param timeout échéance à retirer
+     */
+    private void unlink(WheelTimeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.next = null;
+        timeout.previous = null;
+        timeout.linked = false;
+        size--;
+    }
+
+    /**
+     * échéance chaînée dans une case de la roue
+     */
+    private static class WheelTimeout implements Timeout {
+        private final HashedTimingWheel wheel;
+        private final Runnable task;
+        private final int bucket;
+        private long remainingRounds;
+        private WheelTimeout next;
+        private WheelTimeout previous;
+        private boolean linked;
+        private boolean cancelled;
+
+        WheelTimeout(HashedTimingWheel wheel, Runnable task,
+                     long remainingRounds, int bucket) {
+            this.wheel = wheel;
+            this.task = task;
+            this.remainingRounds = remainingRounds;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (linked) {
+                wheel.unlink(this);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
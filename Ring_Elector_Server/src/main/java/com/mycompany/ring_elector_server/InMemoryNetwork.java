@@ -0,0 +1,59 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * réseau en mémoire reliant des InMemoryTransport d'une même JVM.
+ *
+ * Permet de co-héberger plusieurs serveurs dans un processus et de les faire
+ * communiquer à la vitesse de la mémoire, ou de simuler des milliers de
+ * serveurs dans les benchmarks. Un paquet envoyé à une adresse inconnue est
+ * perdu, comme un datagram envoyé à un port fermé.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class InMemoryNetwork implements TransportFactory {
+
+    private final ConcurrentMap<InetSocketAddress, InMemoryTransport> endpoints;
+
+    /**
+     * constructeur
+     */
+    public InMemoryNetwork() {
+        endpoints = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Transport open(InetSocketAddress address, EventLoop eventLoop,
+                          TransportReceiver receiver) throws IOException {
+        InMemoryTransport transport = new InMemoryTransport(this, address,
+                                                            eventLoop, receiver);
+        if (endpoints.putIfAbsent(address, transport) != null) {
+            throw new BindException("Adresse déjà utilisée : " + address);
+        }
+        return transport;
+    }
+
+    /**
+     * retourne le transport joignable à l'adresse donnée
+     *
+     * @param address adresse recherchée
+     * @return le transport, null si personne n'écoute à cette adresse
+     */
+    InMemoryTransport lookup(InetSocketAddress address) {
+        return endpoints.get(address);
+    }
+
+    /**
+     * retire un transport fermé du réseau
+     *
+     * @param transport transport fermé
+     */
+    void unbind(InMemoryTransport transport) {
+        endpoints.remove(transport.getAddress(), transport);
+    }
+}
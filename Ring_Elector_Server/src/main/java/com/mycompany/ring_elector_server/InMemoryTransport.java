@@ -0,0 +1,178 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport en mémoire: les octets envoyés sont recopiés dans une case
+ * d'un anneau préalloué du destinataire puis consommés sur place par sa
+ * propre EventLoop. La copie permet à l'expéditeur de réutiliser son buffer
+ * dès le retour de send(), comme avec un DatagramChannel, et c'est la seule:
+ * envoyer ou recevoir un paquet n'alloue ni buffer ni objet.
+ *
+ * L'anneau compte RING_CAPACITY cases de MAX_FRAME_LENGTH bytes, découpées
+ * dans un seul buffer pour qu'un anneau de 1024 serveurs reste léger, et
+ * accepte plusieurs expéditeurs concurrents (file bornée de Vyukov): chaque
+ * case porte un numéro de séquence atomique qui indique si elle est libre,
+ * remplie ou en cours d'écriture. Un paquet trouvant l'anneau plein ou trop
+ * long est perdu, comme un datagram UDP.
+ *
+ * Une seule tâche de consommation est soumise à l'EventLoop du destinataire
+ * tant que son anneau n'a pas été vidé. Si expéditeur et destinataire
+ * partagent la même EventLoop, aucun appel système n'est effectué.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class InMemoryTransport implements Transport {
+
+    /**
+     * taille maximale d'un paquet, celle d'un message d'élection, qui couvre
+     * aussi les pings et les messages de LeaderLookupService
+     */
+    static final int MAX_FRAME_LENGTH = MessageCodec.MAX_LENGTH;
+    static final int RING_CAPACITY = 256;
+    private final InMemoryNetwork network;
+    private final InetSocketAddress address;
+    private final EventLoop eventLoop;
+    private final TransportReceiver receiver;
+    private final ByteBuffer frames;
+    private final ByteBuffer frame;
+    private final int[] lengths;
+    private final InetSocketAddress[] sources;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private long head;
+    private final AtomicBoolean drainScheduled;
+    private final Runnable drain;
+    private volatile boolean open;
+
+    /**
+     * constructeur, utiliser InMemoryNetwork.open()
+     *
+     * @param network réseau auquel appartient ce transport
+     * @param address adresse de ce transport sur le réseau
+     * @param eventLoop boucle qui consommera les paquets reçus
+     * @param receiver callback des paquets reçus
+     */
+    InMemoryTransport(InMemoryNetwork network, InetSocketAddress address,
+                      EventLoop eventLoop, TransportReceiver receiver) {
+        this.network = network;
+        this.address = address;
+        this.eventLoop = eventLoop;
+        this.receiver = receiver;
+        this.frames = ByteBuffer.allocate(RING_CAPACITY * MAX_FRAME_LENGTH);
+        this.frame = frames.duplicate();
+        this.lengths = new int[RING_CAPACITY];
+        this.sources = new InetSocketAddress[RING_CAPACITY];
+        this.sequences = new AtomicLongArray(RING_CAPACITY);
+        for (int i = 0; i < RING_CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        this.tail = new AtomicLong();
+        this.drainScheduled = new AtomicBoolean();
+        this.drain = this::drain;
+        this.open = true;
+    }
+
+    /**
+     * retourne l'adresse de ce transport sur le réseau
+     *
+     * @return l'adresse de ce transport sur le réseau
+     */
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress destination)
+            throws IOException {
+        InMemoryTransport peer = network.lookup(destination);
+        if (peer != null) {
+            peer.deliver(data, address);
+        }
+        data.position(data.limit());
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        network.unbind(this);
+    }
+
+    /**
+     * recopie un paquet dans une case libre de l'anneau et réveille
+     * l'EventLoop si besoin, peut être appelé depuis n'importe quel thread
+     *
+     * @param data octets du paquet, de position à limit
+     * @param source adresse de l'expéditeur
+     */
+    private void deliver(ByteBuffer data, InetSocketAddress source) {
+        if (!open || data.remaining() > MAX_FRAME_LENGTH) {
+            return;
+        }
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & (RING_CAPACITY - 1);
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                // anneau plein: le paquet est perdu
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        // écritures absolues: plusieurs expéditeurs remplissent des cases
+        // différentes du même buffer sans toucher à sa position
+        int offset = index * MAX_FRAME_LENGTH;
+        int length = data.remaining();
+        for (int i = 0; i < length; i++) {
+            frames.put(offset + i, data.get(data.position() + i));
+        }
+        lengths[index] = length;
+        sources[index] = source;
+        sequences.set(index, position + 1);
+        if (drainScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(drain);
+        }
+    }
+
+    /**
+     * consomme depuis l'EventLoop tous les paquets en attente, chacun est lu
+     * dans sa case, au travers d'une unique vue positionnée sur elle, avant
+     * que celle-ci ne soit rendue aux expéditeurs
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        while (open) {
+            int index = (int) head & (RING_CAPACITY - 1);
+            if (sequences.get(index) != head + 1) {
+                return;
+            }
+            int offset = index * MAX_FRAME_LENGTH;
+            frame.limit(offset + lengths[index]);
+            frame.position(offset);
+            try {
+                receiver.onReceive(frame, sources[index]);
+            } catch (IOException | RuntimeException ex) {
+                // la case doit être rendue quoi qu'il arrive
+                Logger.getLogger(InMemoryTransport.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+            sources[index] = null;
+            sequences.set(index, head + RING_CAPACITY);
+            head++;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.mycompany.ring_elector_server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * histogramme de latences en millisecondes à précision relative constante.
+ *
+ * Chaque puissance de 2 est découpée en 8 cases, l'erreur sur un percentile
+ * est donc d'au plus 12.5%, pour une taille fixe de quelques kilo-octets.
+ * L'enregistrement se fait sans verrou et peut être lu depuis un autre thread
+ * (JMX).
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    /**
+     * constructeur
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray((Long.SIZE - 2) * SUB_BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * enregistre une latence
+     *
+     * @param value latence en millisecondes, les valeurs négatives valent 0
+     */
+    public void record(long value) {
+        long latency = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(latency));
+        count.incrementAndGet();
+        sum.addAndGet(latency);
+        long previous;
+        while (latency > (previous = max.get())
+                && !max.compareAndSet(previous, latency)) {
+            // un autre thread a modifié le maximum, on réessaie
+        }
+    }
+
+    /**
+     * retourne le nombre de latences enregistrées
+     *
+     * @return le nombre de latences enregistrées
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * retourne la borne supérieure de la case contenant le percentile demandé
+     *
+     * @param percentile percentile entre 0 et 1
+     * @return la latence en millisecondes, 0 si rien n'a été enregistré
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long cumulated = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            cumulated += counts.get(i);
+            if (cumulated >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * résumé de l'histogramme pour JMX
+     *
+     * @return nombre, moyenne, percentiles 50, 90, 99 et maximum
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        long total = count.get();
+        snapshot.put("count", total);
+        snapshot.put("mean", total == 0 ? 0 : sum.get() / total);
+        snapshot.put("p50", getPercentile(0.50));
+        snapshot.put("p90", getPercentile(0.90));
+        snapshot.put("p99", getPercentile(0.99));
+        snapshot.put("max", max.get());
+        return snapshot;
+    }
+
+    /**
+     * calcule la case d'une latence
+     *
+     * @param value latence positive
+     * @return l'index de la case
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+                        & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * calcule la plus grande latence rangée dans une case
+     *
+     * @param index index de la case
+     * @return la borne supérieure de la case
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
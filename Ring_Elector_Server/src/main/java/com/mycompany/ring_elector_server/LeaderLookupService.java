@@ -0,0 +1,422 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * répond aux clients qui cherchent l'élu, par exemple pour lui adresser
+ * leurs écritures, sur son propre port UDP (voir Lookup).
+ *
+ * Le service a sa propre EventLoop et son propre thread: un grand nombre de
+ * requêtes ne retarde jamais le traitement des messages d'élection, et
+ * aucune requête ne lit l'état de l'élection. La réponse LEADER est encodée
+ * une seule fois à chaque changement d'élu, puis renvoyée telle quelle à
+ * chaque QUERY sans trace ni allocation.
+ *
+ * Plutôt que de sonder, un client peut s'abonner: il reçoit aussitôt
+ * l'élu courant puis un LEADER à chaque changement. UDP pouvant perdre une
+ * notification, l'abonnement expire après SUBSCRIPTION_TTL millisecondes et
+ * le client le renouvelle, par exemple à mi-parcours, ce qui lui renvoie
+ * l'élu courant. Au plus MAX_SUBSCRIBERS abonnés sont retenus.
+ *
+ * UDP ne garantit pas l'adresse de l'expéditeur, le service ne doit donc
+ * pas servir d'amplificateur contre une adresse usurpée:
+ * - une requête plus courte que REQUEST_LENGTH, la taille maximale d'une
+ *   réponse, est ignorée: une réponse n'est jamais plus grande que la
+ *   requête
+ * - SUBSCRIBE et UNSUBSCRIBE doivent porter le jeton de l'adresse du
+ *   client, sinon le service répond par un CHALLENGE qui le lui transmet.
+ *   Seul un client recevant à cette adresse peut donc s'abonner, et les
+ *   notifications ne sont jamais poussées vers une adresse usurpée. Le
+ *   jeton est un HMAC de l'adresse sous une clé tirée au démarrage: aucun
+ *   état n'est retenu avant l'abonnement.
+ * Le service n'authentifie pas ses clients: il est fait pour un réseau de
+ * confiance, son port ne doit pas être exposé à un réseau non fiable.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class LeaderLookupService implements TransportReceiver {
+
+    /**
+     * durée d'un abonnement sans renouvellement en millisecondes
+     */
+    public static final long SUBSCRIPTION_TTL = 30000;
+    static final int MAX_SUBSCRIBERS = 4096;
+    private static final long REPORT_PERIOD = 10000;
+    private static final String TOKEN_ALGORITHM = "HmacSHA256";
+    private static final int MAX_RESPONSE_SIZE = 1 + 8 + 4 + 2 + 1 + 16;
+    /**
+     * taille minimale d'une requête, au moins celle d'une réponse
+     */
+    public static final int REQUEST_LENGTH = MAX_RESPONSE_SIZE;
+    private static final int TOKEN = 1;
+    private final EventLoop eventLoop;
+    private final Thread eventLoopThread;
+    private final Transport transport;
+    private final Map<InetSocketAddress, Long> subscribers;
+    private final Mac mac;
+    private final byte[] digest;
+    private final ByteBuffer challenge;
+    private ByteBuffer response;
+    private long answered;
+    private long pushed;
+    private volatile long totalAnswered;
+    private volatile long totalPushed;
+    private volatile int subscriberCount;
+
+    /**
+     * constructeur, le service ne répond qu'une fois démarré
+     *
+     * @param address adresse à laquelle les clients joignent le service
+     * @param transportFactory fabrique du transport du service
+     * @throws IOException Si le transport ne peut être ouvert
+     */
+    public LeaderLookupService(InetSocketAddress address,
+                               TransportFactory transportFactory)
+            throws IOException {
+        eventLoop = new EventLoop();
+        eventLoopThread = new Thread(eventLoop);
+        transport = transportFactory.open(address, eventLoop, this);
+        subscribers = new HashMap<>();
+        response = encode(null, 0);
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        try {
+            mac = Mac.getInstance(TOKEN_ALGORITHM);
+            mac.init(new SecretKeySpec(key, TOKEN_ALGORITHM));
+        } catch (GeneralSecurityException ex) {
+            // HmacSHA256 est fourni par toute plateforme Java
+            throw new IllegalStateException(ex);
+        }
+        digest = new byte[mac.getMacLength()];
+        challenge = ByteBuffer.allocate(1 + 8);
+        challenge.put(0, Lookup.CHALLENGE.value);
+    }
+
+    /**
+     * lance le thread du service
+     */
+    public void start() {
+        eventLoopThread.start();
+        eventLoop.execute(() -> eventLoop.schedule(REPORT_PERIOD,
+                                                   this::report));
+    }
+
+    /**
+     * ferme le transport et arrête le thread du service
+     */
+    public void stop() {
+        eventLoop.execute(() -> {
+            try {
+                transport.close();
+            } catch (IOException ex) {
+                Logger.getLogger(LeaderLookupService.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+        });
+        eventLoop.stop();
+    }
+
+    /**
+     * remplace la réponse servie par celle d'un nouvel élu et la pousse aux
+     * abonnés. Peut être appelé depuis n'importe quel thread, par exemple
+     * par un ElectionListener.
+     *
+     * @param state état de l'élection terminée
+     */
+    public void leaderChanged(ElectionState state) {
+        ByteBuffer encoded = encode(state.getElected(), state.getEpoch());
+        eventLoop.execute(() -> install(encoded));
+    }
+
+    /**
+     * retourne le nombre total de requêtes QUERY et SUBSCRIBE répondues
+     *
+     * @return le nombre de réponses envoyées, publié périodiquement
+     */
+    public long getAnswered() {
+        return totalAnswered;
+    }
+
+    /**
+     * retourne le nombre total de notifications poussées aux abonnés
+     *
+     * @return le nombre de notifications, publié périodiquement
+     */
+    public long getPushed() {
+        return totalPushed;
+    }
+
+    /**
+     * retourne le nombre d'abonnés
+     *
+     * @return le nombre d'abonnés
+     */
+    public int getSubscribers() {
+        return subscriberCount;
+    }
+
+    /**
+     * encode une réponse LEADER
+     *
+     * @param leader élu, null si aucun
+     * @param epoch époque de l'élection de l'élu
+     * @return la réponse prête à être envoyée
+     */
+    static ByteBuffer encode(ServerDAO leader, long epoch) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_RESPONSE_SIZE);
+        buffer.put(Lookup.LEADER.value);
+        buffer.putLong(epoch);
+        if (leader == null) {
+            buffer.putInt(-1);
+            buffer.putShort((short) 0);
+            buffer.put((byte) 0);
+        } else {
+            byte[] address = leader.getIpAdress().getAddress();
+            buffer.putInt(leader.getId());
+            buffer.putShort((short) leader.getPort());
+            buffer.put((byte) address.length);
+            buffer.put(address);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * lit une réponse LEADER, pour les clients du service
+     *
+     * @param data réponse reçue, de position à limit
+     * @return l'élu et son époque, dans la phase ELECTED_PHASE s'il est
+     *         connu. L'élu ne porte que son identifiant, son adresse et son
+     *         port.
+     * @throws ProtocolException si la réponse est mal formée
+     */
+    public static ElectionState decode(ByteBuffer data)
+            throws ProtocolException {
+        int start = data.position();
+        if (data.remaining() < 16 || data.get(start) != Lookup.LEADER.value) {
+            throw new ProtocolException("Réponse LEADER invalide");
+        }
+        long epoch = data.getLong(start + 1);
+        int leader = data.getInt(start + 9);
+        int port = data.getShort(start + 13) & 0xFFFF;
+        int length = data.get(start + 15);
+        if (leader < 0) {
+            return new ElectionState(Phase.ELECTION_PHASE, null, epoch,
+                                     new ServerDAO[0]);
+        }
+        if (length != 4 && length != 16 || data.remaining() < 16 + length) {
+            throw new ProtocolException("Adresse de l'élu invalide");
+        }
+        byte[] address = new byte[length];
+        for (int i = 0; i < length; i++) {
+            address[i] = data.get(start + 16 + i);
+        }
+        try {
+            ServerDAO elected = new ServerDAO(InetAddress.getByAddress(address),
+                                              port, leader);
+            return new ElectionState(Phase.ELECTED_PHASE, elected, epoch,
+                                     new ServerDAO[0]);
+        } catch (UnknownHostException ex) {
+            throw new ProtocolException("Adresse de l'élu invalide");
+        }
+    }
+
+    /**
+     * prépare une requête, pour les clients du service
+     *
+     * @param type QUERY, SUBSCRIBE ou UNSUBSCRIBE
+     * @param token jeton reçu par CHALLENGE, 0 si inconnu
+     * @return la requête de REQUEST_LENGTH bytes prête à être envoyée
+     */
+    public static ByteBuffer request(Lookup type, long token) {
+        ByteBuffer buffer = ByteBuffer.allocate(REQUEST_LENGTH);
+        buffer.put(0, type.value);
+        buffer.putLong(TOKEN, token);
+        return buffer;
+    }
+
+    /**
+     * lit le jeton d'une réponse CHALLENGE, pour les clients du service
+     *
+     * @param data réponse reçue, de position à limit
+     * @return le jeton à joindre aux SUBSCRIBE et UNSUBSCRIBE
+     * @throws ProtocolException si la réponse n'est pas un CHALLENGE
+     */
+    public static long decodeChallenge(ByteBuffer data)
+            throws ProtocolException {
+        int start = data.position();
+        if (data.remaining() < 1 + 8
+                || data.get(start) != Lookup.CHALLENGE.value) {
+            throw new ProtocolException("Réponse CHALLENGE invalide");
+        }
+        return data.getLong(start + TOKEN);
+    }
+
+    /**
+     * appelé par l'EventLoop du service pour chaque requête reçue
+     *
+     * @param data requête reçue
+     * @param source adresse du client
+     * @throws IOException Si un soucis de réseau survient
+     */
+    @Override
+    public void onReceive(ByteBuffer data, InetSocketAddress source)
+            throws IOException {
+        if (data.remaining() < REQUEST_LENGTH) {
+            // trop courte, y répondre amplifierait une usurpation d'adresse
+            return;
+        }
+        byte type = data.get(data.position());
+        if (type == Lookup.QUERY.value) {
+            // chemin critique: ni trace ni allocation
+            answer(source);
+        } else if (type == Lookup.SUBSCRIBE.value) {
+            if (data.getLong(data.position() + TOKEN) != token(source)) {
+                sendChallenge(source);
+                return;
+            }
+            subscribe(source);
+            answer(source);
+        } else if (type == Lookup.UNSUBSCRIBE.value) {
+            if (data.getLong(data.position() + TOKEN) != token(source)) {
+                sendChallenge(source);
+                return;
+            }
+            subscribers.remove(source);
+            subscriberCount = subscribers.size();
+        }
+    }
+
+    /**
+     * calcule le jeton d'une adresse de client, les 8 premiers bytes du
+     * HMAC de son adresse ip et de son port
+     *
+     * @param source adresse du client
+     * @return le jeton de l'adresse
+     */
+    private long token(InetSocketAddress source) {
+        mac.update(source.getAddress().getAddress());
+        mac.update((byte) (source.getPort() >> 8));
+        mac.update((byte) source.getPort());
+        try {
+            mac.doFinal(digest, 0);
+        } catch (ShortBufferException ex) {
+            // digest est dimensionné par getMacLength()
+            throw new IllegalStateException(ex);
+        }
+        long token = 0;
+        for (int i = 0; i < 8; i++) {
+            token = token << 8 | digest[i] & 0xFF;
+        }
+        return token;
+    }
+
+    /**
+     * transmet à un client le jeton de son adresse, sans l'abonner
+     *
+     * @param destination adresse du client
+     * @throws IOException en cas de soucis lors de l'envoi
+     */
+    private void sendChallenge(InetSocketAddress destination)
+            throws IOException {
+        challenge.putLong(TOKEN, token(destination));
+        challenge.rewind();
+        transport.send(challenge, destination);
+    }
+
+    /**
+     * envoie la réponse courante, le même buffer sert à toutes les réponses
+     *
+     * @param destination adresse du client
+     * @throws IOException en cas de soucis lors de l'envoi
+     */
+    private void answer(InetSocketAddress destination) throws IOException {
+        response.rewind();
+        transport.send(response, destination);
+        answered++;
+    }
+
+    /**
+     * abonne ou réabonne un client, un nouvel abonné est refusé si la table
+     * est pleine même après retrait des abonnements expirés
+     *
+     * @param source adresse du client
+     */
+    private void subscribe(InetSocketAddress source) {
+        long now = eventLoop.now();
+        if (!subscribers.containsKey(source)
+                && subscribers.size() >= MAX_SUBSCRIBERS) {
+            expire(now);
+            if (subscribers.size() >= MAX_SUBSCRIBERS) {
+                System.out.println("Abonnement refusé, " + MAX_SUBSCRIBERS
+                                    + " abonnés : " + source);
+                return;
+            }
+        }
+        subscribers.put(source, now + SUBSCRIPTION_TTL);
+        subscriberCount = subscribers.size();
+    }
+
+    /**
+     * retire les abonnements expirés
+     *
+     * @param now heure courante de l'EventLoop
+     */
+    private void expire(long now) {
+        subscribers.values().removeIf(expiry -> expiry <= now);
+        subscriberCount = subscribers.size();
+    }
+
+    /**
+     * adopte une nouvelle réponse et la pousse aux abonnés encore valides
+     *
+     * @param encoded réponse encodée pour le nouvel élu
+     */
+    private void install(ByteBuffer encoded) {
+        response = encoded;
+        long now = eventLoop.now();
+        Iterator<Map.Entry<InetSocketAddress, Long>> entries
+                = subscribers.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<InetSocketAddress, Long> entry = entries.next();
+            if (entry.getValue() <= now) {
+                entries.remove();
+                continue;
+            }
+            try {
+                response.rewind();
+                transport.send(response, entry.getKey());
+                pushed++;
+            } catch (IOException ex) {
+                Logger.getLogger(LeaderLookupService.class.getName())
+                      .log(Level.SEVERE, null, ex);
+            }
+        }
+        subscriberCount = subscribers.size();
+    }
+
+    /**
+     * publie les compteurs et retire les abonnements expirés
+     */
+    private void report() {
+        expire(eventLoop.now());
+        totalAnswered = answered;
+        totalPushed = pushed;
+        eventLoop.schedule(REPORT_PERIOD, this::report);
+    }
+}
@@ -0,0 +1,168 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import sun.misc.Unsafe;
+
+/**
+ * registre de l'élu publié dans un petit fichier projeté en mémoire, lu par
+ * les processus du même hôte avec un LeaderRegisterReader sans passer par
+ * le réseau.
+ *
+ * Chaque nouvel état de l'élection y est recopié: identifiant, adresse et
+ * port de l'élu, époque et phase. Un numéro de version sert de seqlock: il
+ * est impair pendant une écriture et pair une fois les champs cohérents, un
+ * lecteur recommence sa lecture s'il l'a vu changer entre temps.
+ *
+ * Écrivain et lecteurs étant souvent des processus différents, l'ordre des
+ * accès au fichier ne peut reposer sur le modèle mémoire de Java: des
+ * barrières explicites (storeFence, loadFence) encadrent les champs de part
+ * et d'autre des deux écritures, et des deux lectures, de la version.
+ *
+ * Disposition du fichier (REGISTER_SIZE bytes, big-endian):
+ * magic (4 bytes) | format (4 bytes) | version (8 bytes) | époque (8 bytes)
+ * | phase (4 bytes) | id de l'élu, -1 si aucun (4 bytes) | port (4 bytes) |
+ * longueur de l'adresse, 0, 4 ou 16 (1 byte) | adresse (16 bytes)
+ *
+ * N'est utilisé que depuis le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+final class LeaderRegister {
+
+    static final int MAGIC = 0x52454C52;
+    static final int FORMAT = 1;
+    static final int REGISTER_SIZE = 64;
+    static final int MAGIC_OFFSET = 0;
+    static final int FORMAT_OFFSET = 4;
+    static final int VERSION_OFFSET = 8;
+    static final int EPOCH_OFFSET = 16;
+    static final int PHASE_OFFSET = 24;
+    static final int LEADER_OFFSET = 28;
+    static final int PORT_OFFSET = 32;
+    static final int ADDRESS_LENGTH_OFFSET = 36;
+    static final int ADDRESS_OFFSET = 37;
+    private final MappedByteBuffer buffer;
+    private long version;
+    private boolean closed;
+    private static final Unsafe UNSAFE = unsafe();
+
+    /**
+     * constructeur
+     *
+     * @param buffer projection du fichier du registre
+     * @param version dernière version publiée dans le fichier, paire
+     */
+    private LeaderRegister(MappedByteBuffer buffer, long version) {
+        this.buffer = buffer;
+        this.version = version;
+    }
+
+    /**
+     * ouvre ou crée le fichier du registre. Un registre existant garde sa
+     * version, un lecteur ne peut donc pas confondre l'état d'un serveur
+     * redémarré avec celui qu'il a déjà lu.
+     *
+     * @param path fichier du registre
+     * @return le registre
+     * @throws IOException si le fichier ne peut être projeté
+     */
+    static LeaderRegister open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                  0, REGISTER_SIZE);
+            long version = 0;
+            if (buffer.getInt(MAGIC_OFFSET) == MAGIC
+                    && buffer.getInt(FORMAT_OFFSET) == FORMAT) {
+                version = (buffer.getLong(VERSION_OFFSET) + 1) & ~1L;
+            }
+            buffer.putLong(VERSION_OFFSET, version);
+            buffer.putInt(FORMAT_OFFSET, FORMAT);
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            return new LeaderRegister(buffer, version);
+        }
+    }
+
+    /**
+     * recopie un état de l'élection dans le registre
+     *
+     * @param state état publié par l'ElectionManager
+     */
+    void publish(ElectionState state) {
+        if (closed) {
+            return;
+        }
+        ServerDAO elected = state.getElected();
+        buffer.putLong(VERSION_OFFSET, ++version);
+        // la version impaire doit être visible avant le moindre champ
+        storeFence();
+        buffer.putLong(EPOCH_OFFSET, state.getEpoch());
+        buffer.putInt(PHASE_OFFSET, state.getPhase().ordinal());
+        if (elected == null) {
+            buffer.putInt(LEADER_OFFSET, -1);
+            buffer.putInt(PORT_OFFSET, 0);
+            buffer.put(ADDRESS_LENGTH_OFFSET, (byte) 0);
+        } else {
+            byte[] address = elected.getIpAdress().getAddress();
+            buffer.putInt(LEADER_OFFSET, elected.getId());
+            buffer.putInt(PORT_OFFSET, elected.getPort());
+            buffer.put(ADDRESS_LENGTH_OFFSET, (byte) address.length);
+            for (int i = 0; i < address.length; i++) {
+                buffer.put(ADDRESS_OFFSET + i, address[i]);
+            }
+        }
+        // et tous les champs avant la version paire
+        storeFence();
+        buffer.putLong(VERSION_OFFSET, ++version);
+    }
+
+    /**
+     * publie une dernière fois un état sans élu, le registre n'étant plus
+     * tenu à jour une fois le serveur arrêté
+     *
+     * @param epoch dernière époque connue
+     */
+    void close(long epoch) {
+        publish(new ElectionState(Phase.ELECTION_PHASE, null, epoch,
+                                  new ServerDAO[0]));
+        closed = true;
+    }
+
+    /**
+     * barrière StoreStore: aucune écriture qui la suit, du JIT comme du
+     * processeur, ne devient visible avant celles qui la précèdent
+     */
+    static void storeFence() {
+        UNSAFE.storeFence();
+    }
+
+    /**
+     * barrière LoadLoad: aucune lecture qui la suit, du JIT comme du
+     * processeur, n'est effectuée avant celles qui la précèdent
+     */
+    static void loadFence() {
+        UNSAFE.loadFence();
+    }
+
+    /**
+     * récupère l'instance de Unsafe, seul moyen en Java 8 de poser une
+     * barrière mémoire autour d'écritures dans un MappedByteBuffer
+     *
+     * @return l'instance de Unsafe
+     */
+    private static Unsafe unsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (NoSuchFieldException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+}
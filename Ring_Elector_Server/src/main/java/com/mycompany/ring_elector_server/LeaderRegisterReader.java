@@ -0,0 +1,143 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * lit l'élu publié par un serveur du même hôte dans son registre projeté en
+ * mémoire (voir RingElectorServer.exportLeader), sans socket ni aller-retour
+ * réseau.
+ *
+ * Tant que le registre n'a pas changé, read() retourne le même ElectionState
+ * après une simple comparaison de version: une lecture coûte quelques
+ * nanosecondes et n'alloue rien. Un nouvel état est lu sous le seqlock du
+ * registre et n'est jamais un mélange de deux écritures.
+ *
+ * Un lecteur n'est pas partagé entre threads, chaque thread ouvre le sien.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public final class LeaderRegisterReader {
+
+    private static final ServerDAO[] NO_STANDBYS = new ServerDAO[0];
+    private final MappedByteBuffer buffer;
+    private final Phase[] phases;
+    private final byte[] address;
+    private long version;
+    private ElectionState state;
+
+    /**
+     * constructeur
+     *
+     * @param buffer projection du fichier du registre
+     */
+    private LeaderRegisterReader(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.phases = Phase.values();
+        this.address = new byte[16];
+        this.version = -1;
+    }
+
+    /**
+     * ouvre le registre publié par un serveur
+     *
+     * @param path fichier du registre
+     * @return le lecteur du registre
+     * @throws IOException si le fichier n'existe pas ou n'est pas un
+     *                     registre
+     */
+    public static LeaderRegisterReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() < LeaderRegister.REGISTER_SIZE) {
+                throw new IOException("Registre incomplet : " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        0, LeaderRegister.REGISTER_SIZE);
+            if (buffer.getInt(LeaderRegister.MAGIC_OFFSET)
+                        != LeaderRegister.MAGIC
+                    || buffer.getInt(LeaderRegister.FORMAT_OFFSET)
+                        != LeaderRegister.FORMAT) {
+                throw new IOException("Format de registre inconnu : " + path);
+            }
+            return new LeaderRegisterReader(buffer);
+        }
+    }
+
+    /**
+     * lit l'état de l'élection publié par le serveur. L'élu retourné ne
+     * porte que son identifiant, son adresse et son port, sans remplaçants:
+     * il se compare par getId() et non par identité.
+     *
+     * @return l'état de l'élection, élu null si aucun n'est connu
+     */
+    public ElectionState read() {
+        while (true) {
+            long before = buffer.getLong(LeaderRegister.VERSION_OFFSET);
+            if (before == version) {
+                return state;
+            }
+            // les champs ne peuvent être lus avant la version
+            LeaderRegister.loadFence();
+            if ((before & 1) != 0) {
+                // écriture en cours, quelques instructions au plus
+                Thread.yield();
+                continue;
+            }
+            long epoch = buffer.getLong(LeaderRegister.EPOCH_OFFSET);
+            int phase = buffer.getInt(LeaderRegister.PHASE_OFFSET);
+            int leader = buffer.getInt(LeaderRegister.LEADER_OFFSET);
+            int port = buffer.getInt(LeaderRegister.PORT_OFFSET);
+            int length = buffer.get(LeaderRegister.ADDRESS_LENGTH_OFFSET)
+                         & 0xFF;
+            for (int i = 0; i < length && i < address.length; i++) {
+                address[i] = buffer.get(LeaderRegister.ADDRESS_OFFSET + i);
+            }
+            // ni la version relue avant les champs
+            LeaderRegister.loadFence();
+            if (buffer.getLong(LeaderRegister.VERSION_OFFSET) == before) {
+                state = decode(epoch, phase, leader, port, length);
+                version = before;
+                return state;
+            }
+        }
+    }
+
+    /**
+     * construit l'état correspondant à une lecture cohérente du registre
+     *
+     * @param epoch époque lue
+     * @param phase ordinal de la phase lue
+     * @param leader identifiant de l'élu lu, -1 si aucun
+     * @param port port de l'élu lu
+     * @param length longueur de l'adresse de l'élu lue
+     * @return l'état de l'élection
+     * @throws IllegalStateException si le registre est corrompu
+     */
+    private ElectionState decode(long epoch, int phase, int leader, int port,
+                                 int length) {
+        if (phase < 0 || phase >= phases.length) {
+            throw new IllegalStateException("Registre corrompu, phase "
+                                            + phase);
+        }
+        ServerDAO elected = null;
+        if (leader >= 0) {
+            try {
+                InetAddress ip = InetAddress.getByAddress(
+                        Arrays.copyOf(address, length));
+                elected = new ServerDAO(ip, port, leader);
+            } catch (UnknownHostException ex) {
+                throw new IllegalStateException("Registre corrompu, adresse"
+                                                + " de longueur " + length,
+                                                ex);
+            }
+        }
+        return new ElectionState(phases[phase], elected, epoch, NO_STANDBYS);
+    }
+}
@@ -0,0 +1,192 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * instantané de ce qu'un serveur sait de l'anneau: élu, époque,
+ * remplaçants de l'élu et serveurs connus en panne.
+ *
+ * Il est écrit dans un fichier local à chaque fin d'élection et à l'arrêt
+ * du serveur. Au redémarrage, l'élu qu'il désigne est validé par un seul
+ * ping: s'il répond, le serveur reprend sa place dans l'anneau sans lancer
+ * d'élection.
+ *
+ * Format binaire, en big-endian:
+ * magic (4 bytes) | version (1 byte) | id du serveur (4 bytes) |
+ * époque (8 bytes) | id de l'élu (4 bytes) | nombre de remplaçants (1 byte)
+ * | id des remplaçants (4 bytes chacun) | nombre de serveurs en panne
+ * (2 bytes) | id des serveurs en panne (4 bytes chacun) | CRC32 (4 bytes)
+ *
+ * L'écriture passe par un fichier temporaire renommé d'un coup, un lecteur
+ * voit donc l'ancien ou le nouvel instantané, jamais un mélange. Le fichier
+ * n'est pas forcé sur disque: un instantané tronqué par une coupure de
+ * courant est rejeté par son CRC et le serveur démarre par une élection.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public final class LeaderSnapshot {
+
+    private static final int MAGIC = 0x52454C53;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 4 + 1 + 2 + 4;
+    private final int serverId;
+    private final long epoch;
+    private final int leaderId;
+    private final int[] standbyIds;
+    private final int[] deadIds;
+
+    /**
+     * constructeur
+     *
+     * @param serverId identifiant du serveur auquel appartient l'instantané
+     * @param epoch époque de l'élection de l'élu
+     * @param leaderId identifiant de l'élu
+     * @param standbyIds identifiants des remplaçants de l'élu, du meilleur au
+     *                   moins bon
+     * @param deadIds identifiants des serveurs connus en panne
+     */
+    LeaderSnapshot(int serverId, long epoch, int leaderId, int[] standbyIds,
+                   int[] deadIds) {
+        this.serverId = serverId;
+        this.epoch = epoch;
+        this.leaderId = leaderId;
+        this.standbyIds = standbyIds;
+        this.deadIds = deadIds;
+    }
+
+    /**
+     * lit un instantané
+     *
+     * @param path fichier de l'instantané
+     * @return l'instantané, null si le fichier n'existe pas
+     * @throws IOException si le fichier ne peut être lu ou est invalide
+     */
+    public static LeaderSnapshot read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Instantané tronqué : " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.limit() - 4);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Instantané corrompu : " + path);
+        }
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new IOException("Format d'instantané inconnu : " + path);
+        }
+        int serverId = buffer.getInt();
+        long epoch = buffer.getLong();
+        int leaderId = buffer.getInt();
+        int[] standbyIds = new int[buffer.get() & 0xFF];
+        if (buffer.remaining() < 4 * standbyIds.length + 2 + 4) {
+            throw new IOException("Instantané tronqué : " + path);
+        }
+        for (int i = 0; i < standbyIds.length; i++) {
+            standbyIds[i] = buffer.getInt();
+        }
+        int[] deadIds = new int[buffer.getShort() & 0xFFFF];
+        if (buffer.remaining() != 4 * deadIds.length + 4) {
+            throw new IOException("Instantané tronqué : " + path);
+        }
+        for (int i = 0; i < deadIds.length; i++) {
+            deadIds[i] = buffer.getInt();
+        }
+        return new LeaderSnapshot(serverId, epoch, leaderId, standbyIds,
+                                  deadIds);
+    }
+
+    /**
+     * écrit l'instantané en remplaçant atomiquement le précédent
+     *
+     * @param path fichier de l'instantané
+     * @throws IOException si le fichier ne peut être écrit
+     */
+    public void write(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+                                                + 4 * standbyIds.length
+                                                + 4 * deadIds.length);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putInt(serverId);
+        buffer.putLong(epoch);
+        buffer.putInt(leaderId);
+        buffer.put((byte) standbyIds.length);
+        for (int id : standbyIds) {
+            buffer.putInt(id);
+        }
+        buffer.putShort((short) deadIds.length);
+        for (int id : deadIds) {
+            buffer.putInt(id);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * retourne l'identifiant du serveur auquel appartient l'instantané
+     *
+     * @return l'identifiant du serveur ayant écrit l'instantané
+     */
+    public int getServerId() {
+        return serverId;
+    }
+
+    /**
+     * retourne l'époque de l'élection de l'élu
+     *
+     * @return l'époque de l'élection de l'élu
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * retourne l'identifiant de l'élu
+     *
+     * @return l'identifiant de l'élu
+     */
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    /**
+     * retourne les identifiants des remplaçants de l'élu
+     *
+     * @return les identifiants des remplaçants, du meilleur au moins bon
+     */
+    public int[] getStandbyIds() {
+        return standbyIds.clone();
+    }
+
+    /**
+     * retourne les identifiants des serveurs connus en panne
+     *
+     * @return les identifiants des serveurs connus en panne
+     */
+    public int[] getDeadIds() {
+        return deadIds.clone();
+    }
+}
@@ -0,0 +1,17 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * énum représentant la manière dont les serveurs surveillent l'élu
+ *
+ * -PING chaque serveur pingue l'élu qui répond à chacun, l'élu reçoit donc
+ *       un nombre de pings proportionnel à la taille de l'anneau
+ * -HEARTBEAT l'élu envoie lui-même un battement de coeur à tous les serveurs
+ *            à chaque période, les autres ne font que vérifier sa fraîcheur
+ *            et l'élu ne reçoit plus aucun ping
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public enum LivenessMode {
+    PING,
+    HEARTBEAT
+}
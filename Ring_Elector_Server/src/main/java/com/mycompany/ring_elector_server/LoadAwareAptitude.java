@@ -0,0 +1,104 @@
+package com.mycompany.ring_elector_server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.function.IntSupplier;
+
+/**
+ * stratégie élisant le serveur le moins chargé. L'aptitude est l'opposé
+ * d'une charge exprimée en points:
+ * - un point par pourcent de charge système moyenne (load average) par
+ *   processeur, au plus MAX_LOAD_POINTS
+ * - un point par pourcent du heap utilisé
+ * - un point par requête en attente dans la file fournie par l'application,
+ *   au plus MAX_QUEUE_POINTS
+ *
+ * Un serveur sans charge a donc une aptitude de 0, les autres une aptitude
+ * négative. À charge égale, l'adresse ip puis l'identifiant départagent les
+ * serveurs.
+ *
+ * L'échantillonnage ne coûte que quelques lectures: la charge moyenne est
+ * calculée par le système, le heap par le Runtime et la file par
+ * l'application. Il n'a lieu qu'au début de chaque élection.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class LoadAwareAptitude implements AptitudeStrategy {
+
+    /**
+     * charge système maximale prise en compte, en pourcent par processeur
+     */
+    public static final int MAX_LOAD_POINTS = 1000;
+    /**
+     * nombre maximal de requêtes en attente prises en compte
+     */
+    public static final int MAX_QUEUE_POINTS = 1000;
+    private final OperatingSystemMXBean system;
+    private final Runtime runtime;
+    private final IntSupplier queueDepth;
+
+    /**
+     * constructeur ne tenant compte que de la charge système et du heap
+     */
+    public LoadAwareAptitude() {
+        this(() -> 0);
+    }
+
+    /**
+     * constructeur
+     *
+     * @param queueDepth nombre de requêtes en attente de traitement par
+     *                   l'application, lu depuis le thread de l'EventLoop
+     */
+    public LoadAwareAptitude(IntSupplier queueDepth) {
+        this.system = ManagementFactory.getOperatingSystemMXBean();
+        this.runtime = Runtime.getRuntime();
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * calcule l'aptitude à partir de la charge actuelle de ce processus et
+     * de sa machine
+     *
+     * @param ownServer notre serveur
+     * @return l'opposé de la charge en points
+     */
+    @Override
+    public int aptitude(ServerDAO ownServer) {
+        return -(loadPoints() + heapPoints() + queuePoints());
+    }
+
+    /**
+     * retourne les points de charge de la machine
+     *
+     * @return la charge système moyenne par processeur en pourcent, 0 si le
+     *         système ne la fournit pas
+     */
+    private int loadPoints() {
+        double load = system.getSystemLoadAverage();
+        if (load < 0) {
+            return 0;
+        }
+        return (int) Math.min(MAX_LOAD_POINTS,
+                              load * 100 / system.getAvailableProcessors());
+    }
+
+    /**
+     * retourne les points d'occupation de la mémoire de ce processus
+     *
+     * @return le pourcentage du heap maximal utilisé
+     */
+    private int heapPoints() {
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (int) (used * 100 / runtime.maxMemory());
+    }
+
+    /**
+     * retourne les points de la file de requêtes de l'application
+     *
+     * @return le nombre de requêtes en attente, borné
+     */
+    private int queuePoints() {
+        return Math.max(0, Math.min(MAX_QUEUE_POINTS, queueDepth.getAsInt()));
+    }
+}
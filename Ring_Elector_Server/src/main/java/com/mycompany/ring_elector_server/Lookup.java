@@ -0,0 +1,39 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * énum servant de protocol aux clients qui cherchent l'élu, sur le port du
+ * LeaderLookupService (distinct de ceux de l'élection et des pings)
+ * 
+ * -QUERY est envoyé par un client voulant connaître l'élu
+ * -LEADER répond à un QUERY ou à un SUBSCRIBE, et est envoyé spontanément
+ *         aux abonnés à chaque changement d'élu
+ * -SUBSCRIBE abonne (ou réabonne) l'expéditeur pour SUBSCRIPTION_TTL
+ *            millisecondes s'il porte le jeton de son adresse
+ * -UNSUBSCRIBE met fin à l'abonnement de l'expéditeur s'il porte le jeton
+ *              de son adresse
+ * -CHALLENGE répond à un SUBSCRIBE ou UNSUBSCRIBE sans jeton valide et
+ *            transmet le jeton de l'adresse du client
+ * 
+ * Les requêtes font au moins LeaderLookupService.REQUEST_LENGTH bytes,
+ * soit au moins la taille d'une réponse: le type, le jeton sur 8 bytes (0
+ * si inconnu, ignoré par QUERY) puis du bourrage. LEADER est suivi de
+ * l'époque sur 8 bytes, de l'identifiant de l'élu sur 4 bytes (-1 si
+ * aucun), de son port sur 2 bytes, de la longueur de son adresse sur 1 byte
+ * (0, 4 ou 16) et de son adresse. CHALLENGE est suivi du jeton sur 8
+ * bytes.
+ * 
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public enum Lookup {
+    QUERY ((byte)0),
+    LEADER ((byte)1),
+    SUBSCRIBE ((byte)2),
+    UNSUBSCRIBE ((byte)3),
+    CHALLENGE ((byte)4);
+    
+    protected byte value;
+    
+    Lookup(byte value) {
+        this.value = value;
+    }
+}
@@ -6,7 +6,10 @@ import java.net.ProtocolException;
  * classe représentant le protocol durant l'élection
  * 
  * message contient au premier byte le type de message,
- * au second byte l'identifiant du candidat et au 3ème byte son aptitude.
+ * au second byte l'identifiant du candidat, au 3ème byte son aptitude
+ * et au 4ème byte le numéro de séquence du message.
+ * Un message RESPONSE ne contient que le type et le numéro de séquence du
+ * message qu'il aquitte.
  * 
  * Il existe 3 type de messages, 4 identifiant maximum et donc 4 aptitude 
  * qui sont déductible de l'identifiant de la machine.
@@ -16,9 +19,18 @@ import java.net.ProtocolException;
  * garder l'extensibilité du protocol à plus de 4 machines et rendre l'aptitude
  * possiblement non dépendant de l'identifiant de la machine.
  * 
+ * Il s'agit de l'ancien format (version 0), limité à 256 identifiants et à
+ * une aptitude sur un byte. Les serveurs envoient désormais le format
+ * versionné de MessageCodec, qui accepte encore celui-ci en lecture.
+ * 
  * @author Jimmy Verdasca et Nathan Gonzales
  */
 public class Message {
+    /**
+     * taille maximale d'un message, permet de dimensionner les buffers
+     */
+    public static final int MAX_LENGTH = 4;
+    
     private byte[] message;
     private int length;
     
@@ -42,7 +54,7 @@ public class Message {
         /*
          * On se permet le cast car Il n'y aura que 4 id selon la donnée
          */
-        this(messageType, (byte)candidat.getId(), candidat.getAptitude());
+        this(messageType, (byte)candidat.getId(), (byte)candidat.getAptitude());
     }
     
     /**
@@ -56,12 +68,12 @@ public class Message {
     private Message(MessageType messageType, byte idCandidat, byte aptitudeCandidat)
     {
         if (messageType.value != MessageType.RESPONSE.value) {
-            this.length = 3;
+            this.length = 4;
             message = new byte[length];
             message[1] = idCandidat;
             message[2] = aptitudeCandidat;
         } else {
-            this.length = 1;
+            this.length = 2;
             message = new byte[length];
         }
         message[0] = messageType.value;
@@ -84,13 +96,16 @@ public class Message {
         if (buffer[0] == MessageType.RESPONSE.value) {
             message = new Message();
         } else if (buffer[0] == MessageType.RESULT.value) {
-            message = new Message(MessageType.RESULT, servers[buffer[1]]);
+            message = new Message(MessageType.RESULT, servers[buffer[1] & 0xFF]);
         } else if (buffer[0] == MessageType.ELECTION.value){
-            message = new Message(MessageType.ELECTION, servers[buffer[1]]);
+            message = new Message(MessageType.ELECTION, servers[buffer[1] & 0xFF]);
+        } else if (buffer[0] == MessageType.PROBE.value){
+            message = new Message(MessageType.PROBE, servers[buffer[1] & 0xFF]);
         } else {
             throw new ProtocolException("Le type de message ne correspond"
                     + " à rien de connu : " + buffer[0]);
         }
+        message.setSequence(buffer[message.length - 1]);
         return message;
     }
     
@@ -104,14 +119,33 @@ public class Message {
     }
 
     /**
-     * retourne la taille du buffer qui varie entre les type de message (1-3)
+     * retourne la taille du buffer qui varie entre les type de message (2-4)
      * 
-     * @return la taille du buffer qui varie entre les type de message (1-3)
+     * @return la taille du buffer qui varie entre les type de message (2-4)
      */
     public int getLength() {
         return length;
     }
     
+    /**
+     * retourne le numéro de séquence du message, pour un message RESPONSE
+     * il s'agit du numéro du message aquitté
+     * 
+     * @return le numéro de séquence du message
+     */
+    byte getSequence() {
+        return message[length - 1];
+    }
+    
+    /**
+     * définit le numéro de séquence du message
+     * 
+     * @param sequence numéro de séquence du message
+     */
+    void setSequence(byte sequence) {
+        message[length - 1] = sequence;
+    }
+    
     /**
      * retourne le type de message que contient la classe
      * 
@@ -144,10 +178,12 @@ public class Message {
     @Override
     public String toString() {
         if(getMessageType() == MessageType.RESPONSE) {
-            return " Type : " + getMessageType().name();
+            return " Type : " + getMessageType().name()
+                    + " séquence : " + getSequence();
         }else {
             return " Type : " + getMessageType().name()
-                    + " idCandidat : " + getCandidat();
+                    + " idCandidat : " + getCandidat()
+                    + " séquence : " + getSequence();
         }
     }
 }
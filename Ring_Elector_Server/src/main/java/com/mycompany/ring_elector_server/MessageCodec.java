@@ -0,0 +1,618 @@
+package com.mycompany.ring_elector_server;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * codec poids mouche (flyweight) du protocole d'élection: lit et écrit les
+ * champs d'un message directement dans un ByteBuffer, sans construire
+ * d'objet Message ni de tableau intermédiaire.
+ *
+ * Format versionné (VERSION 2), au plus MAX_LENGTH bytes soit moins d'une
+ * ligne de cache:
+ * - un byte marqueur de version, bit de poids fort à 1 (0x82)
+ * - un byte de type de message
+ * - deux bytes de numéro de séquence
+ * - le groupe d'élection en varint, y compris pour une RESPONSE
+ * - pour ELECTION, RESULT, PROBE et HANDOFF: l'identifiant du candidat en
+ *   varint, son aptitude sur 4 bytes et l'époque de l'élection en varint
+ * - facultativement pour ELECTION et RESULT: le classement des remplaçants,
+ *   un byte de nombre d'entrées (au plus MAX_STANDBYS) suivi pour chacun,
+ *   du meilleur au moins bon, de son identifiant en varint et de son
+ *   aptitude sur 4 bytes. Un message sans classement s'arrête à l'époque.
+ * - pour JOIN et LEAVE, dont le groupe est 0 et dont le candidat est le
+ *   serveur arrivant ou partant, d'identifiant au plus MAX_SERVER_ID: son
+ *   adresse, soit un byte de longueur (4 ou 16) suivi des bytes de
+ *   l'adresse ip, puis son port sur 2 bytes
+ *
+ * Les varint (LEB128 non signé) codent 7 bits par byte: un identifiant
+ * inférieur à 128 tient sur un byte, 16383 sur deux.
+ *
+ * Les formats précédents restent acceptés en lecture pendant le
+ * déploiement, leurs messages appartiennent au groupe 0 et sont aquittés
+ * dans leur propre format:
+ * - version 1 (0x81): comme la version 2 mais sans groupe et avec un seul
+ *   byte de numéro de séquence
+ * - version 0: type, identifiant et aptitude sur un byte chacun, suivis ou
+ *   non du numéro de séquence, soit 3 ou 4 bytes, et 1 ou 2 bytes pour une
+ *   RESPONSE. Il se reconnaît à son premier byte, un type de 0 à 3. Son
+ *   époque est 0. HANDOFF, JOIN et LEAVE n'existent pas dans ce format.
+ *
+ * Les lectures et écritures sont absolues à partir de la position du
+ * buffer, qui n'est donc pas modifiée par les lectures.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+final class MessageCodec {
+
+    /**
+     * version du format écrit par ce codec
+     */
+    static final int VERSION = 2;
+    /**
+     * nombre maximal de remplaçants classés transportés par un message
+     */
+    static final int MAX_STANDBYS = 3;
+    /**
+     * taille maximale d'un message, permet de dimensionner les buffers
+     */
+    static final int MAX_LENGTH = 4 + 5 + 5 + 4 + 10
+                                  + 1 + MAX_STANDBYS * (5 + 4);
+    /**
+     * identifiant maximal d'un serveur, sur au plus deux bytes de varint.
+     * Borne les tables indexées par identifiant: un JOIN ou un LEAVE
+     * désignant un identifiant plus grand est rejeté.
+     */
+    static final int MAX_SERVER_ID = (1 << 14) - 1;
+    /**
+     * nombre de numéros de séquence distincts du format courant
+     */
+    static final int SEQUENCES = 1 << 16;
+    private static final byte MARKER = (byte) (0x80 | VERSION);
+    private static final byte MARKER_V1 = (byte) 0x81;
+    private static final int TYPE = 1;
+    private static final int SEQUENCE = 2;
+    private static final int GROUP = 4;
+    private static final int V1_CANDIDAT = 3;
+    private static final int LEGACY_CANDIDAT = 1;
+    private static final int LEGACY_APTITUDE = 2;
+    private static final int LEGACY_SEQUENCE = 3;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * écrit un message ELECTION, RESULT, PROBE ou HANDOFF au début du
+     * buffer et le prépare à l'envoi (position 0, limite à la fin du
+     * message)
+     *
+     * @param buffer buffer d'au moins MAX_LENGTH bytes
+     * @param messageType type du message
+     * @param group groupe d'élection du message
+     * @param candidat candidat transporté par le message
+     * @param epoch époque de l'élection
+     * @param sequence numéro de séquence du message, sur 16 bits
+     */
+    static void encode(ByteBuffer buffer, MessageType messageType, int group,
+                       ServerDAO candidat, long epoch, int sequence) {
+        encode(buffer, messageType, group, candidat, epoch, null, 0, null,
+               sequence);
+    }
+
+    /**
+     * écrit un message ELECTION ou RESULT suivi du classement des
+     * remplaçants au début du buffer et le prépare à l'envoi
+     *
+     * @param buffer buffer d'au moins MAX_LENGTH bytes
+     * @param messageType type du message
+     * @param group groupe d'élection du message
+     * @param candidat candidat transporté par le message
+     * @param epoch époque de l'élection
+     * @param standbys remplaçants du meilleur au moins bon
+     * @param standbyCount nombre de remplaçants, au plus MAX_STANDBYS
+     * @param aptitudes aptitude connue de chaque serveur indexée par son
+     *                  identifiant, null pour l'aptitude fixe de ServerDAO
+     * @param sequence numéro de séquence du message, sur 16 bits
+     */
+    static void encode(ByteBuffer buffer, MessageType messageType, int group,
+                       ServerDAO candidat, long epoch, ServerDAO[] standbys,
+                       int standbyCount, int[] aptitudes, int sequence) {
+        buffer.clear();
+        buffer.put(MARKER);
+        buffer.put(messageType.value);
+        buffer.putShort((short) sequence);
+        putVarint(buffer, group & 0xFFFFFFFFL);
+        putVarint(buffer, candidat.getId() & 0xFFFFFFFFL);
+        buffer.putInt(aptitudeOf(candidat, aptitudes));
+        putVarint(buffer, epoch);
+        if (standbyCount > 0) {
+            buffer.put((byte) standbyCount);
+            for (int i = 0; i < standbyCount; i++) {
+                putVarint(buffer, standbys[i].getId() & 0xFFFFFFFFL);
+                buffer.putInt(aptitudeOf(standbys[i], aptitudes));
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * retourne l'aptitude à écrire pour un serveur
+     *
+     * @param server serveur transporté par le message
+     * @param aptitudes aptitudes connues, null pour l'aptitude fixe
+     * @return l'aptitude du serveur
+     */
+    private static int aptitudeOf(ServerDAO server, int[] aptitudes) {
+        return aptitudes == null ? server.getAptitude()
+                                 : aptitudes[server.getId()];
+    }
+
+    /**
+     * écrit un message JOIN ou LEAVE au début du buffer et le prépare à
+     * l'envoi
+     *
+     * @param buffer buffer d'au moins MAX_LENGTH bytes
+     * @param messageType JOIN ou LEAVE
+     * @param member serveur arrivant ou partant
+     * @param sequence numéro de séquence du message, sur 16 bits
+     */
+    static void encodeMember(ByteBuffer buffer, MessageType messageType,
+                             ServerDAO member, int sequence) {
+        encode(buffer, messageType, 0, member, 0, sequence);
+        int end = buffer.limit();
+        buffer.limit(buffer.capacity());
+        buffer.position(end);
+        byte[] address = member.getIpAdress().getAddress();
+        buffer.put((byte) address.length);
+        buffer.put(address);
+        buffer.putShort((short) member.getPort());
+        buffer.flip();
+    }
+
+    /**
+     * écrit un message RESPONSE au début du buffer et le prépare à l'envoi
+     *
+     * @param buffer buffer d'au moins 9 bytes
+     * @param sequence numéro de séquence du message aquitté
+     * @param group groupe d'élection du message aquitté
+     * @param version format du message aquitté, voir version()
+     */
+    static void encodeResponse(ByteBuffer buffer, int sequence, int group,
+                               int version) {
+        buffer.clear();
+        if (version == VERSION) {
+            buffer.put(MARKER);
+            buffer.put(MessageType.RESPONSE.value);
+            buffer.putShort((short) sequence);
+            putVarint(buffer, group & 0xFFFFFFFFL);
+        } else {
+            if (version == 1) {
+                buffer.put(MARKER_V1);
+            }
+            buffer.put(MessageType.RESPONSE.value);
+            buffer.put((byte) sequence);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * vérifie que le message lu est complet et d'un type connu
+     *
+     * @param buffer message reçu, entre sa position et sa limite
+     * @return le type du message
+     * @throws ProtocolException Si le buffer ne contient pas
+     *         des valeurs correspondant au protocol
+     */
+    static MessageType validate(ByteBuffer buffer) throws ProtocolException {
+        if (!buffer.hasRemaining()) {
+            throw new ProtocolException("Message vide");
+        }
+        int start = buffer.position();
+        byte first = buffer.get(start);
+        if (MessageType.get(first) != null
+                && first <= MessageType.PROBE.value) {
+            MessageType messageType = MessageType.get(first);
+            if (messageType != MessageType.RESPONSE
+                    && buffer.remaining() < LEGACY_SEQUENCE) {
+                throw truncated(messageType, buffer);
+            }
+            return messageType;
+        }
+        if (first != MARKER && first != MARKER_V1) {
+            throw new ProtocolException("Version ou type de message inconnu : "
+                    + first);
+        }
+        if (buffer.remaining() <= SEQUENCE) {
+            throw new ProtocolException("Message tronqué : "
+                    + buffer.remaining() + " bytes");
+        }
+        MessageType messageType = MessageType.get(buffer.get(start + TYPE));
+        if (messageType == null) {
+            throw new ProtocolException("Le type de message ne correspond"
+                    + " à rien de connu : " + buffer.get(start + TYPE));
+        }
+        int end = start + V1_CANDIDAT;
+        if (first == MARKER) {
+            end = skipVarint(buffer, start + GROUP);
+        }
+        if (messageType != MessageType.RESPONSE) {
+            end = end < 0 ? end : skipVarint(buffer, end);
+            end = end < 0 ? end : skipVarint(buffer, end + 4);
+        }
+        if (end < 0) {
+            throw truncated(messageType, buffer);
+        }
+        if (messageType == MessageType.JOIN
+                || messageType == MessageType.LEAVE) {
+            validateMember(buffer, end, messageType);
+            int id = candidat(buffer);
+            if (id < 0 || id > MAX_SERVER_ID) {
+                throw new ProtocolException("Identifiant de serveur invalide : "
+                                            + getVarint(buffer,
+                                                        payload(buffer)));
+            }
+        } else if (first == MARKER && end < buffer.limit()) {
+            validateStandbys(buffer, end, messageType);
+        }
+        return messageType;
+    }
+
+    /**
+     * vérifie l'adresse du serveur d'un message JOIN ou LEAVE
+     *
+     * @param buffer message reçu
+     * @param index index absolu de la longueur de l'adresse
+     * @param messageType type du message
+     * @throws ProtocolException si l'adresse est invalide ou tronquée
+     */
+    private static void validateMember(ByteBuffer buffer, int index,
+                                       MessageType messageType)
+            throws ProtocolException {
+        if (index >= buffer.limit()) {
+            throw truncated(messageType, buffer);
+        }
+        int length = buffer.get(index);
+        if (length != 4 && length != 16) {
+            throw new ProtocolException("Longueur d'adresse invalide : "
+                                        + length);
+        }
+        if (index + 1 + length + 2 > buffer.limit()) {
+            throw truncated(messageType, buffer);
+        }
+    }
+
+    /**
+     * vérifie le classement des remplaçants suivant l'époque d'un message
+     *
+     * @param buffer message reçu
+     * @param index index absolu du nombre de remplaçants
+     * @param messageType type du message
+     * @throws ProtocolException si le classement est trop long ou tronqué
+     */
+    private static void validateStandbys(ByteBuffer buffer, int index,
+                                         MessageType messageType)
+            throws ProtocolException {
+        int count = buffer.get(index++);
+        if (count < 0 || count > MAX_STANDBYS) {
+            throw new ProtocolException("Nombre de remplaçants invalide : "
+                                        + count);
+        }
+        for (int i = 0; i < count && index >= 0; i++) {
+            index = skipVarint(buffer, index);
+            index = index < 0 || index + 4 > buffer.limit() ? -1 : index + 4;
+        }
+        if (index < 0) {
+            throw truncated(messageType, buffer);
+        }
+    }
+
+    /**
+     * indique si le message est dans l'ancien format, sans version
+     *
+     * @param buffer message
+     * @return true si le message est dans l'ancien format
+     */
+    static boolean isLegacy(ByteBuffer buffer) {
+        return version(buffer) == 0;
+    }
+
+    /**
+     * retourne le format d'un message déjà validé
+     *
+     * @param buffer message
+     * @return 0 pour l'ancien format, 1 ou VERSION pour un format versionné
+     */
+    static int version(ByteBuffer buffer) {
+        byte first = buffer.get(buffer.position());
+        return first == MARKER ? VERSION : first == MARKER_V1 ? 1 : 0;
+    }
+
+    /**
+     * lit le type d'un message déjà validé
+     *
+     * @param buffer message
+     * @return le type du message
+     */
+    static MessageType type(ByteBuffer buffer) {
+        int start = buffer.position();
+        return MessageType.get(isLegacy(buffer) ? buffer.get(start)
+                                                : buffer.get(start + TYPE));
+    }
+
+    /**
+     * lit le numéro de séquence d'un message, 0 pour un ancien message
+     * qui n'en portait pas
+     *
+     * @param buffer message
+     * @return le numéro de séquence du message, positif
+     */
+    static int sequence(ByteBuffer buffer) {
+        int start = buffer.position();
+        switch (version(buffer)) {
+            case VERSION:
+                return buffer.getShort(start + SEQUENCE) & 0xFFFF;
+            case 1:
+                return buffer.get(start + SEQUENCE) & 0xFF;
+            default:
+                int index = type(buffer) == MessageType.RESPONSE
+                            ? 1 : LEGACY_SEQUENCE;
+                return buffer.remaining() > index
+                       ? buffer.get(start + index) & 0xFF : 0;
+        }
+    }
+
+    /**
+     * réécrit le numéro de séquence d'un message encodé par ce codec
+     *
+     * @param buffer message
+     * @param sequence nouveau numéro de séquence, sur 16 bits
+     */
+    static void setSequence(ByteBuffer buffer, int sequence) {
+        buffer.putShort(buffer.position() + SEQUENCE, (short) sequence);
+    }
+
+    /**
+     * lit le groupe d'élection d'un message, 0 pour les formats précédents
+     *
+     * @param buffer message
+     * @return le groupe d'élection du message, négatif s'il ne tient pas
+     *         dans un int
+     */
+    static int group(ByteBuffer buffer) {
+        if (version(buffer) != VERSION) {
+            return 0;
+        }
+        long group = getVarint(buffer, buffer.position() + GROUP);
+        return group > Integer.MAX_VALUE ? -1 : (int) group;
+    }
+
+    /**
+     * lit l'identifiant du candidat d'un message ELECTION, RESULT ou PROBE
+     *
+     * @param buffer message
+     * @return l'identifiant du candidat, négatif s'il ne tient pas dans un
+     *         int
+     */
+    static int candidat(ByteBuffer buffer) {
+        if (isLegacy(buffer)) {
+            return buffer.get(buffer.position() + LEGACY_CANDIDAT) & 0xFF;
+        }
+        long candidat = getVarint(buffer, payload(buffer));
+        return candidat > Integer.MAX_VALUE ? -1 : (int) candidat;
+    }
+
+    /**
+     * lit l'aptitude du candidat d'un message ELECTION, RESULT ou PROBE
+     *
+     * @param buffer message
+     * @return l'aptitude du candidat
+     */
+    static int aptitude(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (isLegacy(buffer)) {
+            return buffer.get(start + LEGACY_APTITUDE);
+        }
+        return buffer.getInt(skipVarint(buffer, payload(buffer)));
+    }
+
+    /**
+     * lit l'époque de l'élection d'un message ELECTION, RESULT ou PROBE
+     *
+     * @param buffer message
+     * @return l'époque de l'élection, 0 pour l'ancien format
+     */
+    static long epoch(ByteBuffer buffer) {
+        if (isLegacy(buffer)) {
+            return 0;
+        }
+        return getVarint(buffer, skipVarint(buffer, payload(buffer)) + 4);
+    }
+
+    /**
+     * lit le nombre de remplaçants classés d'un message ELECTION ou RESULT
+     *
+     * @param buffer message déjà validé
+     * @return le nombre de remplaçants, 0 si le message n'en porte pas
+     */
+    static int standbyCount(ByteBuffer buffer) {
+        if (version(buffer) != VERSION
+                || type(buffer) == MessageType.RESPONSE) {
+            return 0;
+        }
+        int index = standbys(buffer);
+        return index < buffer.limit() ? buffer.get(index) : 0;
+    }
+
+    /**
+     * lit l'identifiant d'un remplaçant classé
+     *
+     * @param buffer message déjà validé
+     * @param rank rang du remplaçant, de 0 (le meilleur) à standbyCount - 1
+     * @return l'identifiant du remplaçant
+     */
+    static int standby(ByteBuffer buffer, int rank) {
+        return (int) getVarint(buffer, standby(buffer, standbys(buffer), rank));
+    }
+
+    /**
+     * lit l'aptitude d'un remplaçant classé
+     *
+     * @param buffer message déjà validé
+     * @param rank rang du remplaçant, de 0 (le meilleur) à standbyCount - 1
+     * @return l'aptitude du remplaçant
+     */
+    static int standbyAptitude(ByteBuffer buffer, int rank) {
+        int index = standby(buffer, standbys(buffer), rank);
+        return buffer.getInt(skipVarint(buffer, index));
+    }
+
+    /**
+     * lit le serveur arrivant ou partant d'un message JOIN ou LEAVE, alloue:
+     * à réserver à ces messages rares
+     *
+     * @param buffer message déjà validé
+     * @return le serveur désigné par le message
+     * @throws ProtocolException si l'adresse ne peut être lue
+     */
+    static ServerDAO member(ByteBuffer buffer) throws ProtocolException {
+        int index = standbys(buffer);
+        byte[] address = new byte[buffer.get(index)];
+        for (int i = 0; i < address.length; i++) {
+            address[i] = buffer.get(index + 1 + i);
+        }
+        int port = buffer.getShort(index + 1 + address.length) & 0xFFFF;
+        try {
+            return new ServerDAO(InetAddress.getByAddress(address), port,
+                                 candidat(buffer));
+        } catch (UnknownHostException ex) {
+            throw new ProtocolException("Adresse invalide : " + ex);
+        }
+    }
+
+    /**
+     * retourne l'index du nombre de remplaçants, qui suit l'époque
+     *
+     * @param buffer message versionné déjà validé
+     * @return l'index absolu du nombre de remplaçants, égal à la limite du
+     *         buffer si le message n'en porte pas
+     */
+    private static int standbys(ByteBuffer buffer) {
+        return skipVarint(buffer, skipVarint(buffer, payload(buffer)) + 4);
+    }
+
+    /**
+     * retourne l'index d'une entrée du classement des remplaçants
+     *
+     * @param buffer message déjà validé
+     * @param index index absolu du nombre de remplaçants
+     * @param rank rang du remplaçant
+     * @return l'index absolu de l'identifiant du remplaçant
+     */
+    private static int standby(ByteBuffer buffer, int index, int rank) {
+        index++;
+        for (int i = 0; i < rank; i++) {
+            index = skipVarint(buffer, index) + 4;
+        }
+        return index;
+    }
+
+    /**
+     * retourne l'index du candidat d'un message versionné déjà validé
+     *
+     * @param buffer message
+     * @return l'index absolu du premier byte de l'identifiant du candidat
+     */
+    private static int payload(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (version(buffer) == 1) {
+            return start + V1_CANDIDAT;
+        }
+        return skipVarint(buffer, start + GROUP);
+    }
+
+    /**
+     * décrit un message pour les traces, alloue: à réserver aux évènements
+     * rares
+     *
+     * @param buffer message
+     * @return un string représentant le message
+     */
+    static String toString(ByteBuffer buffer) {
+        MessageType messageType = type(buffer);
+        if (messageType == MessageType.RESPONSE) {
+            return " Type : " + messageType.name()
+                    + " groupe : " + group(buffer)
+                    + " séquence : " + sequence(buffer);
+        }
+        return " Type : " + messageType.name()
+                + " groupe : " + group(buffer)
+                + " idCandidat : " + candidat(buffer)
+                + " époque : " + epoch(buffer)
+                + " séquence : " + sequence(buffer);
+    }
+
+    /**
+     * écrit une valeur non signée en varint à la position du buffer
+     *
+     * @param buffer buffer de destination
+     * @param value valeur à écrire
+     */
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * lit un varint à l'index donné d'un message déjà validé
+     *
+     * @param buffer message
+     * @param index index absolu du premier byte du varint
+     * @return la valeur lue
+     */
+    private static long getVarint(ByteBuffer buffer, int index) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(index++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * retourne l'index suivant un varint
+     *
+     * @param buffer message
+     * @param index index absolu du premier byte du varint
+     * @return l'index du byte suivant le varint, -1 si le varint dépasse
+     *         la fin du message ou 10 bytes
+     */
+    private static int skipVarint(ByteBuffer buffer, int index) {
+        int limit = Math.min(buffer.limit(), index + 10);
+        while (index < limit) {
+            if (buffer.get(index++) >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * construit l'erreur d'un message trop court pour son type
+     *
+     * @param messageType type du message
+     * @param buffer message
+     * @return l'exception à lever
+     */
+    private static ProtocolException truncated(MessageType messageType,
+                                               ByteBuffer buffer) {
+        return new ProtocolException("Message " + messageType.name()
+                + " tronqué : " + buffer.remaining() + " bytes");
+    }
+}
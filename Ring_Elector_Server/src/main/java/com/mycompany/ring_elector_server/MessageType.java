@@ -9,7 +9,13 @@ import java.util.Map;
  * 
  * -ELECTION sert à annoncer le candidat actuel favori
  * -RESULT sert à communiqué à tous le choix d'élu
- * -RESPONSE sert d'aquittement aux deux type précédent
+ * -RESPONSE sert d'aquittement aux autres types
+ * -PROBE sonde envoyée en tâche de fond pour vérifier qu'un successeur est
+ *        vivant, seul son aquittement compte
+ * -HANDOFF annonce à tous le départ volontaire de l'élu, son premier
+ *          remplaçant prend aussitôt sa place. N'est pas aquitté.
+ * -JOIN annonce l'arrivée d'un serveur dans l'anneau, avec son adresse
+ * -LEAVE annonce le retrait d'un serveur de l'anneau
  * 
  * Nous nous servons d'une hashmap afin de pouvoir récupérer l'enum aussi
  * à partir de sa valeur puisque nous devrons lire des datagrams.
@@ -19,7 +25,11 @@ import java.util.Map;
 public enum MessageType {
     ELECTION ((byte)0),
     RESPONSE ((byte)1),
-    RESULT ((byte)2);
+    RESULT ((byte)2),
+    PROBE ((byte)3),
+    HANDOFF ((byte)4),
+    JOIN ((byte)5),
+    LEAVE ((byte)6);
     
     protected byte value;
     
@@ -0,0 +1,162 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * serveur participant à plusieurs élections en anneau indépendantes, une
+ * par groupe (par exemple une par partition des données), sur les mêmes
+ * serveurs.
+ *
+ * Quel que soit le nombre de groupes, il n'utilise qu'un thread exécutant
+ * une EventLoop et qu'un socket, celui de l'ElectionMultiplexer: chaque
+ * groupe n'est qu'un ElectionManager de quelques centaines de bytes. La
+ * vivacité des élus est surveillée par le multiplexeur, une fois par
+ * serveur élu et non une fois par groupe, aucun PingCoordinatorManager ni
+ * port de ping n'est donc nécessaire.
+ *
+ * L'élection de chaque groupe est lancée au démarrage de ce serveur, son
+ * état se lit par getElectionManager(group).getState().
+ *
+ * Des serveurs peuvent rejoindre ou quitter l'anneau sans redémarrage, par
+ * updateTopology ou watchTopology, pour tous les groupes à la fois.
+ *
+ * Les métriques du serveur sont publiées par JMX sous le nom
+ * com.mycompany.ring_elector_server:type=ElectorMetrics,id=<id>
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class MultiGroupElectorServer {
+    private final ServerDAO ownServer;
+    private final EventLoop eventLoop;
+    private final Thread eventLoopThread;
+    private final ElectionMultiplexer multiplexer;
+    private TopologyFile topologyFile;
+
+    /**
+     * constructeur
+     *
+     * @param ownServer ServerDAO représentant notre instance
+     * @param servers table de correspondance id->ServerDAO devant contenir
+     * ServerDAO aussi, null pour un identifiant sans serveur
+     * @param groups nombre de groupes d'élection
+     * @throws IOException Si la création de notre propre channel échoue
+     */
+    public MultiGroupElectorServer(ServerDAO ownServer, ServerDAO[] servers,
+                                   int groups) throws IOException {
+        this(ownServer, servers, groups, UdpTransport.FACTORY);
+    }
+
+    /**
+     * constructeur permettant de choisir le transport, par exemple un
+     * InMemoryNetwork pour co-héberger plusieurs serveurs dans la même JVM
+     *
+     * @param ownServer ServerDAO représentant notre instance
+     * @param servers table de correspondance id->ServerDAO devant contenir
+     * ServerDAO aussi
+     * @param groups nombre de groupes d'élection
+     * @param transportFactory fabrique du transport partagé par les groupes
+     * @throws IOException Si la création de notre propre transport échoue
+     */
+    public MultiGroupElectorServer(ServerDAO ownServer, ServerDAO[] servers,
+                                   int groups,
+                                   TransportFactory transportFactory)
+            throws IOException {
+        this(ownServer, servers, groups, transportFactory,
+             StaticAptitude.INSTANCE);
+    }
+
+    /**
+     * constructeur permettant en outre de choisir comment l'aptitude de ce
+     * serveur est calculée, commune à tous les groupes
+     *
+     * @param ownServer ServerDAO représentant notre instance
+     * @param servers table de correspondance id->ServerDAO devant contenir
+     * ServerDAO aussi
+     * @param groups nombre de groupes d'élection
+     * @param transportFactory fabrique du transport partagé par les groupes
+     * @param aptitudeStrategy calcul de notre aptitude à chaque élection
+     * @throws IOException Si la création de notre propre transport échoue
+     */
+    public MultiGroupElectorServer(ServerDAO ownServer, ServerDAO[] servers,
+                                   int groups,
+                                   TransportFactory transportFactory,
+                                   AptitudeStrategy aptitudeStrategy)
+            throws IOException {
+        this.ownServer = ownServer;
+        this.eventLoop = new EventLoop();
+        this.multiplexer = new ElectionMultiplexer(ownServer, servers,
+                                                   eventLoop, transportFactory,
+                                                   groups, aptitudeStrategy);
+        this.eventLoopThread = new Thread(eventLoop);
+    }
+
+    /**
+     * publie les métriques par JMX, lance le thread de l'EventLoop et
+     * démmarre l'élection de chaque groupe
+     */
+    public void start() {
+        multiplexer.getMetrics().register(ownServer.getId());
+        eventLoopThread.start();
+        multiplexer.startElections();
+    }
+
+    /**
+     * arrête les groupes puis l'EventLoop
+     */
+    public void stop() {
+        eventLoop.execute(() -> {
+            if (topologyFile != null) {
+                topologyFile.stop();
+            }
+            multiplexer.stop();
+        });
+        eventLoop.stop();
+        multiplexer.getMetrics().unregister();
+    }
+
+    /**
+     * remplace la topologie de l'anneau: les nouveaux serveurs le
+     * rejoignent, les serveurs absents le quittent, sans interrompre les
+     * élections en cours
+     *
+     * @param servers table de correspondance id->ServerDAO, null pour un
+     * identifiant sans serveur
+     */
+    public void updateTopology(ServerDAO[] servers) {
+        eventLoop.execute(() -> multiplexer.updateTopology(servers));
+    }
+
+    /**
+     * surveille le fichier de topologie et applique chacune de ses
+     * modifications par updateTopology
+     *
+     * @param path fichier de topologie, une ligne "ip port id" par serveur
+     * @throws IOException Si le dossier du fichier ne peut être surveillé
+     */
+    public void watchTopology(Path path) throws IOException {
+        TopologyFile file = new TopologyFile(path, eventLoop,
+                                             multiplexer::updateTopology);
+        file.start();
+        eventLoop.execute(() -> topologyFile = file);
+    }
+
+    /**
+     * retourne le gestionnaire d'élection d'un groupe
+     *
+     * @param group numéro du groupe, de 0 à getGroupCount() - 1
+     * @return le gestionnaire d'élection du groupe
+     */
+    public ElectionManager getElectionManager(int group) {
+        return multiplexer.getGroup(group);
+    }
+
+    /**
+     * retourne le nombre de groupes d'élection
+     *
+     * @return le nombre de groupes d'élection
+     */
+    public int getGroupCount() {
+        return multiplexer.getGroupCount();
+    }
+}
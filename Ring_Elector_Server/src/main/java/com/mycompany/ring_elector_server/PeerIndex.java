@@ -0,0 +1,112 @@
+package com.mycompany.ring_elector_server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * index des adresses des serveurs de l'anneau, construit à partir de la
+ * topologie et reconstruit à chacun de ses changements.
+ *
+ * Retrouve en O(1) et sans allocation l'index du serveur ayant envoyé un
+ * paquet: l'adresse ip (pour IPv4, l'entier de 32 bits de l'adresse) et le
+ * port sont combinés dans un long qui sert de clé à une table à adressage
+ * ouvert. La clé trouvée est confirmée en comparant l'adresse et le port,
+ * deux adresses de même clé (IPv6 par exemple) ne sont donc jamais confondues.
+ *
+ * Immuable après construction, peut être lu depuis n'importe quel thread.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+final class PeerIndex {
+
+    private static final int EMPTY = -1;
+    private final InetSocketAddress[] peers;
+    private final long[] keys;
+    private final int[] indexes;
+    private final int mask;
+
+    /**
+     * constructeur
+     *
+     * @param peers adresses des serveurs, l'index de chaque adresse dans le
+     *              tableau est celui retourné par indexOf
+     */
+    PeerIndex(InetSocketAddress[] peers) {
+        this.peers = peers.clone();
+        // au plus à moitié pleine pour garder des sondages courts
+        int capacity = Integer.highestOneBit(Math.max(peers.length, 1) * 2) << 1;
+        keys = new long[capacity];
+        indexes = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            indexes[i] = EMPTY;
+        }
+        for (int index = 0; index < peers.length; index++) {
+            InetSocketAddress peer = peers[index];
+            if (peer == null) {
+                continue;
+            }
+            long key = key(peer.getAddress(), peer.getPort());
+            int slot = slot(key);
+            while (indexes[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            indexes[slot] = index;
+        }
+    }
+
+    /**
+     * retourne l'index du serveur joignable à l'adresse donnée
+     *
+     * @param address adresse d'un serveur, par exemple source d'un paquet
+     * @return l'index du serveur, -1 s'il ne fait pas partie de l'anneau
+     */
+    int indexOf(InetSocketAddress address) {
+        return indexOf(address.getAddress(), address.getPort());
+    }
+
+    /**
+     * retourne l'index du serveur joignable à l'adresse et au port donnés
+     *
+     * @param address adresse ip du serveur
+     * @param port port du serveur
+     * @return l'index du serveur, -1 s'il ne fait pas partie de l'anneau
+     */
+    int indexOf(InetAddress address, int port) {
+        long key = key(address, port);
+        for (int slot = slot(key); indexes[slot] != EMPTY;
+                slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                InetSocketAddress peer = peers[indexes[slot]];
+                if (peer.getPort() == port
+                        && peer.getAddress().equals(address)) {
+                    return indexes[slot];
+                }
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * combine adresse et port dans un long. Pour une adresse IPv4 le hash
+     * est l'adresse elle-même, la clé est alors exacte.
+     *
+     * @param address adresse ip
+     * @param port port sur 16 bits
+     * @return la clé de l'adresse
+     */
+    private static long key(InetAddress address, int port) {
+        return ((address.hashCode() & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+    }
+
+    /**
+     * retourne la case de départ d'une clé
+     *
+     * @param key clé de l'adresse
+     * @return la case de départ du sondage
+     */
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}
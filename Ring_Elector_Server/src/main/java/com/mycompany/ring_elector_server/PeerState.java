@@ -0,0 +1,18 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * énum représentant l'état connu d'un serveur de l'anneau
+ *
+ * -UNKNOWN aucun échange avec ce serveur pour le moment, il est considéré
+ *          comme joignable
+ * -ALIVE le serveur a aquitté notre dernier message ou sonde
+ * -DEAD le serveur n'a pas aquitté notre dernier message ou sonde à temps,
+ *       il est évité jusqu'à ce qu'une sonde soit de nouveau aquittée
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public enum PeerState {
+    UNKNOWN,
+    ALIVE,
+    DEAD
+}
@@ -0,0 +1,276 @@
+package com.mycompany.ring_elector_server;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * table des messages envoyés en attente d'un aquittement (RESPONSE),
+ * indexée par numéro de séquence.
+ *
+ * Chaque entrée retient le message encodé, son destinataire, le nombre de
+ * tentatives, l'heure d'envoi (d'où est mesuré le temps d'aller-retour) et
+ * l'échéance de retransmission programmée dans l'EventLoop.
+ * Plusieurs messages peuvent ainsi être en attente simultanément sans
+ * bloquer le traitement des autres messages.
+ *
+ * Les entrées, une par numéro de séquence, sont allouées une fois pour
+ * toutes avec leur buffer: envoyer, aquitter ou retransmettre un message
+ * n'alloue ni Message, ni tableau, ni entrée. Chaque entrée est elle-même la
+ * tâche confiée à l'EventLoop à l'expiration de son échéance.
+ *
+ * La table est partagée par tous les groupes d'élection d'un
+ * ElectionMultiplexer, chaque entrée retient donc le groupe de son message.
+ * Sa capacité ne dépend que du nombre de messages en vol, pas du nombre de
+ * groupes.
+ *
+ * N'est utilisée que depuis le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+class PendingAckTable {
+
+    private final PendingAck[] entries;
+    private final Consumer<PendingAck> onTimeout;
+    private int[] aptitudes;
+    private int nextSequence;
+    private int size;
+
+    /**
+     * constructeur
+     *
+     * @param capacity nombre de messages pouvant être en attente en même
+     *                 temps, puissance de 2 d'au plus MessageCodec.SEQUENCES
+     * @param aptitudes aptitude connue de chaque serveur indexée par son
+     *                  identifiant, lue à l'encodage de chaque message
+     * @param onTimeout appelé depuis l'EventLoop lorsqu'une entrée n'est pas
+     *                  aquittée à temps, l'entrée doit ensuite être libérée
+     *                  par release()
+     * @throws IllegalArgumentException si la capacité n'est pas une puissance
+     *         de 2 comprise entre 1 et MessageCodec.SEQUENCES
+     */
+    PendingAckTable(int capacity, int[] aptitudes,
+                    Consumer<PendingAck> onTimeout)
+            throws IllegalArgumentException {
+        if (capacity < 1 || capacity > MessageCodec.SEQUENCES
+                || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacité invalide : "
+                                               + capacity);
+        }
+        this.onTimeout = onTimeout;
+        this.aptitudes = aptitudes;
+        entries = new PendingAck[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new PendingAck(this, i);
+        }
+    }
+
+    /**
+     * réserve l'entrée d'un numéro de séquence qui n'est pas déjà en attente
+     * et y encode le message
+     *
+     * @param messageType type du message à envoyer
+     * @param group groupe d'élection du message
+     * @param candidat candidat transporté par le message
+     * @param epoch époque de l'élection
+     * @param standbys remplaçants classés transportés par le message
+     * @param standbyCount nombre de remplaçants
+     * @param destination serveur à qui le message sera envoyé
+     * @param attempts numéro de la tentative d'envoi
+     * @return l'entrée réservée, son buffer est prêt à être envoyé
+     * @throws IllegalStateException si tous les numéros sont en attente
+     */
+    PendingAck register(MessageType messageType, int group,
+                        ServerDAO candidat, long epoch, ServerDAO[] standbys,
+                        int standbyCount, ServerDAO destination, int attempts)
+            throws IllegalStateException {
+        PendingAck ack = reserve(group, destination, attempts);
+        MessageCodec.encode(ack.frame, messageType, group, candidat, epoch,
+                            standbys, standbyCount, aptitudes, ack.sequence);
+        return ack;
+    }
+
+    /**
+     * réserve l'entrée d'un numéro de séquence et y encode un message JOIN
+     * ou LEAVE
+     *
+     * @param messageType JOIN ou LEAVE
+     * @param member serveur arrivant ou partant
+     * @param destination serveur à qui le message sera envoyé
+     * @return l'entrée réservée, son buffer est prêt à être envoyé
+     * @throws IllegalStateException si tous les numéros sont en attente
+     */
+    PendingAck registerMember(MessageType messageType, ServerDAO member,
+                              ServerDAO destination)
+            throws IllegalStateException {
+        PendingAck ack = reserve(0, destination, 1);
+        MessageCodec.encodeMember(ack.frame, messageType, member,
+                                  ack.sequence);
+        return ack;
+    }
+
+    /**
+     * remplace la table des aptitudes, agrandie à l'arrivée d'un serveur
+     *
+     * @param aptitudes aptitude connue de chaque serveur indexée par son
+     *                  identifiant
+     */
+    void setAptitudes(int[] aptitudes) {
+        this.aptitudes = aptitudes;
+    }
+
+    /**
+     * réserve une nouvelle entrée contenant le même message que l'entrée
+     * expirée, avec un nouveau numéro de séquence
+     *
+     * @param expired entrée dont l'échéance a expiré
+     * @param destination serveur à qui le message sera retransmis
+     * @return l'entrée réservée, son buffer est prêt à être envoyé
+     * @throws IllegalStateException si tous les numéros sont en attente
+     */
+    PendingAck retransmit(PendingAck expired, ServerDAO destination)
+            throws IllegalStateException {
+        PendingAck ack = reserve(expired.group, destination,
+                                 expired.attempts + 1);
+        ack.frame.clear();
+        expired.frame.rewind();
+        ack.frame.put(expired.frame);
+        ack.frame.flip();
+        MessageCodec.setSequence(ack.frame, ack.sequence);
+        return ack;
+    }
+
+    /**
+     * retire l'entrée aquittée et annule son échéance. Seul le destinataire
+     * du message peut l'aquitter: une RESPONSE tardive d'un ancien
+     * destinataire ou un paquet égaré portant le même numéro est ignoré.
+     *
+     * @param sequence numéro de séquence contenu dans la RESPONSE
+     * @param sender identifiant de l'expéditeur de la RESPONSE, -1 s'il
+     *               n'appartient pas à l'anneau
+     * @return l'entrée aquittée, null si aucun message de ce numéro
+     *         n'attendait de RESPONSE de cet expéditeur. Elle reste lisible
+     *         jusqu'à la prochaine réservation.
+     */
+    PendingAck acknowledge(int sequence, int sender) {
+        if (sequence < 0 || sequence >= entries.length) {
+            return null;
+        }
+        PendingAck ack = entries[sequence];
+        if (!ack.pending || ack.destination.getId() != sender) {
+            return null;
+        }
+        release(ack);
+        return ack;
+    }
+
+    /**
+     * libère une entrée et annule son échéance
+     *
+     * @param ack entrée à libérer
+     */
+    void release(PendingAck ack) {
+        if (ack.pending) {
+            ack.pending = false;
+            size--;
+        }
+        if (ack.timeout != null) {
+            ack.timeout.cancel();
+            ack.timeout = null;
+        }
+    }
+
+    /**
+     * abandonne tous les messages en attente
+     */
+    void clear() {
+        for (PendingAck ack : entries) {
+            release(ack);
+        }
+    }
+
+    /**
+     * retourne le nombre de messages en attente d'aquittement
+     *
+     * @return le nombre de messages en attente d'aquittement
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * réserve l'entrée du prochain numéro de séquence libre
+     *
+     * @param group groupe d'élection du message
+     * @param destination serveur à qui le message sera envoyé
+     * @param attempts numéro de la tentative d'envoi
+     * @return l'entrée réservée
+     * @throws IllegalStateException si tous les numéros sont en attente
+     */
+    private PendingAck reserve(int group, ServerDAO destination, int attempts)
+            throws IllegalStateException {
+        for (int i = 0; i < entries.length; i++) {
+            PendingAck ack = entries[nextSequence];
+            nextSequence = (nextSequence + 1) & (entries.length - 1);
+            if (!ack.pending) {
+                ack.pending = true;
+                ack.group = group;
+                ack.destination = destination;
+                ack.attempts = attempts;
+                size++;
+                return ack;
+            }
+        }
+        throw new IllegalStateException("Plus aucun numéro de séquence libre");
+    }
+
+    /**
+     * message en attente d'aquittement, réutilisé pour chaque message
+     * portant son numéro de séquence
+     */
+    static class PendingAck implements Runnable {
+        final int sequence;
+        final ByteBuffer frame;
+        private final PendingAckTable table;
+        int group;
+        ServerDAO destination;
+        int attempts;
+        long sentAt;
+        private Timeout timeout;
+        private boolean pending;
+
+        PendingAck(PendingAckTable table, int sequence) {
+            this.table = table;
+            this.sequence = sequence;
+            this.frame = ByteBuffer.allocate(MessageCodec.MAX_LENGTH);
+        }
+
+        /**
+         * associe l'échéance de retransmission à cette entrée
+         *
+         * @param timeout échéance programmée avec cette entrée pour tâche
+         */
+        void arm(Timeout timeout) {
+            this.timeout = timeout;
+        }
+
+        /**
+         * retourne le type du message en attente
+         *
+         * @return le type du message en attente
+         */
+        MessageType getMessageType() {
+            return MessageCodec.type(frame);
+        }
+
+        /**
+         * appelé par l'EventLoop à l'expiration de l'échéance
+         */
+        @Override
+        public void run() {
+            if (pending) {
+                timeout = null;
+                table.onTimeout.accept(this);
+            }
+        }
+    }
+}
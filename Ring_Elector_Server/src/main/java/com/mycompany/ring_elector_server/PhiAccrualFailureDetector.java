@@ -0,0 +1,137 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * Détecteur de panne à accumulation (phi accrual failure detector).
+ *
+ * Plutôt que de déclarer l'élu en panne après un délai fixe, on conserve
+ * les intervalles entre les dernières réponses reçues et on calcule phi,
+ * le niveau de suspicion: phi = -log10(P(intervalle > temps écoulé)) selon
+ * une loi normale de même moyenne et écart-type que les intervalles observés.
+ * Un phi de 8 signifie donc une probabilité d'erreur de 10^-8.
+ *
+ * Le détecteur s'adapte au réseau: sur un LAN rapide les intervalles sont
+ * réguliers et la panne est détectée vite, lors de pauses (GC...) répétées
+ * l'écart-type grandit et évite les fausses suspicions.
+ *
+ * N'est pas thread-safe: utilisé depuis le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class PhiAccrualFailureDetector {
+
+    private final double threshold;
+    private final double minStdDeviation;
+    private final long firstHeartbeatEstimate;
+    private final long[] intervals;
+    private int count;
+    private int next;
+    private double sum;
+    private double squaredSum;
+    private long lastHeartbeat;
+
+    /**
+     * constructeur
+     *
+     * @param threshold niveau de suspicion à partir duquel on déclare la panne
+     * @param windowSize nombre d'intervalles conservés pour les statistiques
+     * @param minStdDeviation écart-type minimal en millisecondes, évite une
+     *                        suspicion immédiate quand les intervalles sont
+     *                        parfaitement réguliers
+     * @param firstHeartbeatEstimate intervalle supposé avant la première mesure
+     */
+    public PhiAccrualFailureDetector(double threshold, int windowSize,
+                                     double minStdDeviation,
+                                     long firstHeartbeatEstimate) {
+        if (threshold <= 0 || windowSize <= 0 || minStdDeviation <= 0
+                || firstHeartbeatEstimate <= 0) {
+            throw new IllegalArgumentException("Les paramètres du détecteur"
+                    + " doivent être positifs");
+        }
+        this.threshold = threshold;
+        this.minStdDeviation = minStdDeviation;
+        this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+        this.intervals = new long[windowSize];
+        this.lastHeartbeat = -1;
+    }
+
+    /**
+     * enregistre la réception d'une réponse (ou d'un battement de coeur)
+     *
+     * @param now temps courant en millisecondes
+     */
+    public void heartbeat(long now) {
+        if (lastHeartbeat < 0) {
+            // amorce les statistiques avec l'intervalle attendu
+            long estimate = firstHeartbeatEstimate;
+            addInterval(estimate - estimate / 4);
+            addInterval(estimate + estimate / 4);
+        } else {
+            addInterval(now - lastHeartbeat);
+        }
+        lastHeartbeat = now;
+    }
+
+    /**
+     * calcule le niveau de suspicion courant
+     *
+     * @param now temps courant en millisecondes
+     * @return phi, 0 si aucune réponse n'a encore été reçue
+     */
+    public double phi(long now) {
+        if (lastHeartbeat < 0) {
+            return 0;
+        }
+        double mean = sum / count;
+        double variance = squaredSum / count - mean * mean;
+        double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)),
+                                       minStdDeviation);
+        double y = (now - lastHeartbeat - mean) / stdDeviation;
+        // approximation logistique de la fonction de répartition normale
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (now - lastHeartbeat > mean) {
+            return -Math.log10(e / (1.0 + e));
+        } else {
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    /**
+     * indique si le serveur surveillé est considéré comme disponible
+     *
+     * @param now temps courant en millisecondes
+     * @return true tant que phi reste sous le seuil de suspicion
+     */
+    public boolean isAvailable(long now) {
+        return phi(now) < threshold;
+    }
+
+    /**
+     * oublie l'historique, par exemple lorsque l'élu change
+     */
+    public void reset() {
+        count = 0;
+        next = 0;
+        sum = 0;
+        squaredSum = 0;
+        lastHeartbeat = -1;
+    }
+
+    /**
+     * ajoute un intervalle à la fenêtre glissante
+     *
+     * @param interval intervalle en millisecondes
+     */
+    private void addInterval(long interval) {
+        if (count == intervals.length) {
+            long oldest = intervals[next];
+            sum -= oldest;
+            squaredSum -= (double) oldest * oldest;
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % intervals.length;
+        sum += interval;
+        squaredSum += (double) interval * interval;
+    }
+}
@@ -6,12 +6,19 @@ package com.mycompany.ring_elector_server;
  * 
  * -SEND est utilisé par les clients cherchant à atteindre l'élu
  * -RECEIVE est envoyé par l'élu pour répondre à un SEND et donc valider sa présence
+ * -HEARTBEAT est envoyé spontanément par l'élu à tous les serveurs
+ *            en mode LivenessMode.HEARTBEAT
+ * 
+ * RECEIVE et HEARTBEAT sont suivis de l'aptitude actuelle de l'élu sur 4
+ * bytes, ce qui permet aux autres serveurs de décider d'une préemption. Un
+ * message d'un seul byte, d'une version précédente, reste accepté.
  * 
  * @author Jimmy Verdasca et Nathan Gonzales
  */
 public enum Ping {
     SEND ((byte)0),
-    RECEIVE ((byte)1);
+    RECEIVE ((byte)1),
+    HEARTBEAT ((byte)2);
     
     protected byte value;
     
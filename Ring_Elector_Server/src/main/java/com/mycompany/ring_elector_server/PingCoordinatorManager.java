@@ -1,168 +1,469 @@
 package com.mycompany.ring_elector_server;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Runnable qui une fois lancé va pinguer le serveur que electionManager considère 
- * comme l'élu.
- * 
+ * Gestionnaire qui une fois démarré va pinguer le serveur que electionManager
+ * considère comme l'élu.
+ *
  * Si l'élu n'est pas encore choisit alors on attend quelques ms avant l'envoi
- * du prochain ping.
- * Si l'élu est cette instance même alors elle ne fait que répondre aux ping
- * 
- * Si un "client" ne reçoit aucune réponse du serveur après un certain temps,
- * on considère que l'élu est en panne et on lance une élection.
- * 
+ * du prochain ping. L'état de l'élection est lu sans exception et la fin
+ * d'une élection est signalée par un ElectionListener: le nouvel élu est
+ * surveillé immédiatement, sans attendre le tour de ping suivant.
+ * Si l'élu est cette instance même alors elle ne fait que répondre aux ping,
+ * par l'intermédiaire d'un PingResponder
+ *
+ * Si un "client" ne reçoit plus de réponse du serveur, on considère que l'élu
+ * est en panne et on lance une élection. La panne est décidée par un
+ * PhiAccrualFailureDetector alimenté par les intervalles entre les réponses,
+ * le délai de détection s'adapte donc au réseau plutôt que d'être fixe.
+ *
+ * Les pings sont envoyés par une échéance périodique de l'EventLoop, aucun
+ * thread n'est donc bloqué en attente d'une réponse.
+ *
+ * En mode LivenessMode.HEARTBEAT, les rôles sont inversés: l'élu envoie à
+ * chaque période un battement de coeur à tous les serveurs et ceux-ci ne
+ * pinguent plus, la charge entrante de l'élu ne dépend alors plus de la
+ * taille de l'anneau.
+ *
+ * Réponses aux pings et battements de coeur transportent l'aptitude de
+ * l'élu, échantillonnée à chaque tour. Si une PreemptionPolicy est active,
+ * un serveur nettement plus apte que l'élu pendant assez longtemps lance
+ * une nouvelle élection: l'élu migre vers les serveurs les moins chargés
+ * sans attendre de panne.
+ *
+ * Au redémarrage, l'élu enregistré dans un LeaderSnapshot est validé par un
+ * seul ping: seul un serveur se considérant élu y répond.
+ *
  * @author Jimmy Verdasca et Nathan Gonzales
  */
-public class PingCoordinatorManager implements Runnable {
+public class PingCoordinatorManager implements TransportReceiver {
 
+    /**
+     * seuil de suspicion par défaut, probabilité de fausse suspicion 10^-8
+     */
+    public static final double DEFAULT_PHI_THRESHOLD = 8.0;
+    private static final int DETECTOR_WINDOW_SIZE = 100;
+    private static final double DETECTOR_MIN_STD_DEVIATION = 100;
     private boolean running;
     private final ElectionManager electionManager;
+    private final EventLoop eventLoop;
     private final int PORT_PING = 2000;
     private ServerDAO mySelf;
-    private final DatagramSocket socket;
-    private byte[] buffer;
-    
+    private final Transport transport;
+    private final PhiAccrualFailureDetector failureDetector;
+    private final LivenessMode livenessMode;
+    private final ByteBuffer ping;
+    private final ByteBuffer heartbeat;
+    private final PingResponder responder;
+    private ServerDAO[] servers;
+    private InetSocketAddress[] pingAddresses;
+    private PeerIndex pingPeers;
+    private ServerDAO monitored;
+    private long monitoredSince;
+    private boolean awaitingReply;
+    private final PreemptionPolicy preemption;
+    private long betterSince;
+    private final ElectionListener electionListener;
+    private ServerDAO validating;
+    private Runnable validated;
+    private Timeout validationTimeout;
+
 
     /**
      * constructeur
-     * 
+     *
      * @param ownServer représente notre serveur
      * @param electionManager gestionnaire d'élection qui
      * permet de lancer une nouvelle élection
-     * @throws SocketException Si on ne parvient pas à créer la socket
+     * @param eventLoop boucle d'évènements qui traitera nos pings
+     * @throws IOException Si on ne parvient pas à créer le channel
      */
     public PingCoordinatorManager(ServerDAO ownServer,
-                                ElectionManager electionManager)
-                                throws SocketException {
+                                ElectionManager electionManager,
+                                EventLoop eventLoop)
+                                throws IOException {
+        this(ownServer, electionManager, eventLoop, UdpTransport.FACTORY,
+             DEFAULT_PHI_THRESHOLD, LivenessMode.PING);
+    }
+
+    /**
+     * constructeur
+     *
+     * @param ownServer représente notre serveur
+     * @param electionManager gestionnaire d'élection qui
+     * permet de lancer une nouvelle élection
+     * @param eventLoop boucle d'évènements qui traitera nos pings
+     * @param transportFactory fabrique du transport des pings
+     * @param phiThreshold niveau de suspicion à partir duquel l'élu est
+     *                     considéré en panne
+     * @param livenessMode les serveurs pinguent l'élu ou l'élu envoie des
+     *                     battements de coeur
+     * @throws IOException Si on ne parvient pas à créer le transport
+     */
+    public PingCoordinatorManager(ServerDAO ownServer,
+                                ElectionManager electionManager,
+                                EventLoop eventLoop,
+                                TransportFactory transportFactory,
+                                double phiThreshold,
+                                LivenessMode livenessMode)
+                                throws IOException {
+        this(ownServer, electionManager, eventLoop, transportFactory,
+             phiThreshold, livenessMode, PreemptionPolicy.DISABLED);
+    }
+
+    /**
+     * constructeur
+     *
+     * @param ownServer représente notre serveur
+     * @param electionManager gestionnaire d'élection qui
+     * permet de lancer une nouvelle élection
+     * @param eventLoop boucle d'évènements qui traitera nos pings
+     * @param transportFactory fabrique du transport des pings
+     * @param phiThreshold niveau de suspicion à partir duquel l'élu est
+     *                     considéré en panne
+     * @param livenessMode les serveurs pinguent l'élu ou l'élu envoie des
+     *                     battements de coeur
+     * @param preemption conditions auxquelles un élu vivant est remplacé par
+     *                   un serveur plus apte
+     * @throws IOException Si on ne parvient pas à créer le transport
+     */
+    public PingCoordinatorManager(ServerDAO ownServer,
+                                ElectionManager electionManager,
+                                EventLoop eventLoop,
+                                TransportFactory transportFactory,
+                                double phiThreshold,
+                                LivenessMode livenessMode,
+                                PreemptionPolicy preemption)
+                                throws IOException {
         mySelf = ownServer;
-        buffer = new byte[1];
+        this.preemption = preemption;
+        betterSince = -1;
         running = true;
-        socket = new DatagramSocket(PORT_PING + ownServer.getId());
         this.electionManager = electionManager;
+        this.eventLoop = eventLoop;
+        this.livenessMode = livenessMode;
+        refreshPeers();
+        ping = ByteBuffer.allocate(1);
+        ping.put(0, Ping.SEND.value);
+        heartbeat = ByteBuffer.allocate(5);
+        heartbeat.put(0, Ping.HEARTBEAT.value);
+        failureDetector = new PhiAccrualFailureDetector(phiThreshold,
+                                DETECTOR_WINDOW_SIZE,
+                                DETECTOR_MIN_STD_DEVIATION,
+                                electionManager.getAverageElectionTime());
+        transport = transportFactory.open(pingAddressOf(ownServer),
+                                          eventLoop, this);
+        responder = new PingResponder(transport, eventLoop);
+        electionListener = this::electionCompleted;
+        electionManager.getMetrics().setPingResponder(responder);
     }
 
     /**
-     * Méthode tournant en boucle et essayant régulièrement de récupérer
-     * l'élu et s'il existe de lui envoyer un ping
-     * S'il n'existe pas, lance une nouvelle élection
+     * reconstruit les adresses de ping si la topologie de l'anneau a changé
+     * depuis le dernier appel
      */
-    @Override
-    public void run() {
-        ServerDAO coordinator;
-        while(running) {
-            try {
-                coordinator = electionManager.getElected();
-                System.out.println("NOUS AVONS UN ELUUUUU: " + coordinator.getId());
-                if (mySelf == coordinator) {
-                    receivePingFromOthers();
-                } else {
-                    pingCoordinator(coordinator);
-                }
-            } catch (IllegalStateException ex) {
-                // Une élection devrait être en cours, il ne sert a rien de pinger
-                // le serveur
-                // Le mieux est donc de ne pas surcharger le traffic et d'attendre
-                // quelques ms que l'élection se termine.
-                System.out.println("Bah y'a pas d'élu...");
+    private void refreshPeers() {
+        ServerDAO[] current = electionManager.getServers();
+        if (current == servers) {
+            return;
+        }
+        InetSocketAddress[] addresses = new InetSocketAddress[current.length];
+        for (int index = 0; index < current.length; index++) {
+            if (current[index] != null) {
+                addresses[index] = pingAddressOf(current[index]);
             }
-            
-            try {
-                Thread.sleep(electionManager.getAverageElectionTime());
-            } catch (InterruptedException ex1) {
-                Logger.getLogger(PingCoordinatorManager.class.getName())
-                        .log(Level.SEVERE, null, ex1);
+        }
+        servers = current;
+        pingAddresses = addresses;
+        pingPeers = new PeerIndex(addresses);
+    }
+
+    /**
+     * retourne l'adresse à laquelle un serveur reçoit les pings
+     *
+     * @param server serveur dont on veut l'adresse de ping
+     * @return l'adresse de ping du serveur
+     */
+    private InetSocketAddress pingAddressOf(ServerDAO server) {
+        return new InetSocketAddress(server.getIpAdress(),
+                                     PORT_PING + server.getId());
+    }
+
+    /**
+     * programme le premier tour de ping dans l'EventLoop
+     */
+    public void start() {
+        electionManager.addListener(electionListener);
+        eventLoop.execute(() -> {
+            responder.start();
+            tick();
+        });
+    }
+
+    /**
+     * retourne le répondeur aux pings, permet d'en lire le débit
+     *
+     * @return le répondeur aux pings
+     */
+    public PingResponder getResponder() {
+        return responder;
+    }
+
+    /**
+     * Méthode appelée régulièrement par l'EventLoop et lisant l'état de
+     * l'élection: si l'élu est connu on lui envoie un ping puis on vérifie
+     * qu'il n'est pas suspecté d'être en panne
+     */
+    private void tick() {
+        if (!running) {
+            return;
+        }
+        ElectionState state = electionManager.getState();
+        if (state.isComplete()) {
+            watch(state.getElected());
+        } else {
+            // Une élection est en cours, il ne sert a rien de pinger
+            // le serveur: la fin de l'élection nous sera signalée.
+            System.out.println("Bah y'a pas d'élu...");
+        }
+        eventLoop.schedule(electionManager.getAverageElectionTime(), this::tick);
+    }
+
+    /**
+     * appelé par l'EventLoop dès qu'une élection est terminée, commence
+     * aussitôt à surveiller le nouvel élu
+     *
+     * @param state état publié à la fin de l'élection
+     */
+    private void electionCompleted(ElectionState state) {
+        if (running) {
+            watch(state.getElected());
+        }
+    }
+
+    /**
+     * effectue un tour de surveillance de l'élu: battements de coeur si nous
+     * sommes l'élu, ping et vérification du niveau de suspicion sinon
+     *
+     * @param coordinator élu connu
+     */
+    private void watch(ServerDAO coordinator) {
+        System.out.println("NOUS AVONS UN ELUUUUU: " + coordinator.getId());
+        refreshPeers();
+        if (mySelf == coordinator) {
+            monitored = null;
+            int aptitude = electionManager.sampleAptitude();
+            responder.setAptitude(aptitude);
+            heartbeat.putInt(1, aptitude);
+            if (livenessMode == LivenessMode.HEARTBEAT) {
+                sendHeartbeats();
+            }
+        } else {
+            monitor(coordinator);
+            if (livenessMode == LivenessMode.PING) {
+                pingCoordinator(coordinator);
+            }
+            checkCoordinator();
+            if (monitored != null && preemption.isEnabled()) {
+                considerPreemption();
             }
         }
     }
-    
+
+    /**
+     * envoie un unique ping à un élu supposé, par exemple celui d'un
+     * LeaderSnapshot, depuis le thread de l'EventLoop. Sa réponse, ou un
+     * battement de coeur, dans les getAverageElectionTime() millisecondes
+     * prouve qu'il est vivant et toujours élu.
+     *
+     * @param leader élu supposé
+     * @param onAlive appelé si l'élu répond à temps
+     * @param onSilent appelé sinon
+     */
+    void validate(ServerDAO leader, Runnable onAlive, Runnable onSilent) {
+        refreshPeers();
+        validating = leader;
+        validated = onAlive;
+        validationTimeout = eventLoop.schedule(
+                electionManager.getAverageElectionTime(), () -> {
+                    if (running && validating == leader) {
+                        System.out.println("L'élu " + leader.getId()
+                                            + " de l'instantané ne répond pas");
+                        validating = null;
+                        onSilent.run();
+                    }
+                });
+        pingCoordinator(leader);
+        awaitingReply = false;
+    }
+
     /**
-     * permet d'arrêter proprement se Runnable
+     * lance une élection si notre aptitude dépasse celle de l'élu de la
+     * marge de la PreemptionPolicy depuis au moins sa fenêtre et que l'élu
+     * a effectué son mandat minimal. Une seule mesure sous la marge suffit à
+     * recommencer l'attente.
+     */
+    private void considerPreemption() {
+        long now = eventLoop.now();
+        int aptitude = electionManager.sampleAptitude();
+        int leaderAptitude = electionManager.aptitudeOf(monitored);
+        if (!preemption.exceeds(aptitude, leaderAptitude)) {
+            betterSince = -1;
+            return;
+        }
+        if (betterSince < 0) {
+            betterSince = now;
+        }
+        if (now - betterSince >= preemption.getWindow()
+                && now - monitoredSince >= preemption.getMinTenure()) {
+            System.out.println("Aptitude " + aptitude + " meilleure que celle"
+                                + " de l'élu " + monitored.getId() + " ("
+                                + leaderAptitude + "), nouvelle élection");
+            betterSince = -1;
+            monitoredSince = now;
+            electionManager.preempt();
+        }
+    }
+
+    /**
+     * permet d'arrêter proprement ce gestionnaire
      */
     public void stop() {
         running = false;
+        electionManager.removeListener(electionListener);
+        try {
+            transport.close();
+        } catch (IOException ex) {
+            Logger.getLogger(PingCoordinatorManager.class.getName())
+                    .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * commence la surveillance d'un nouvel élu, l'historique des réponses
+     * de l'ancien élu n'a plus de sens
+     *
+     * @param coordinator serveur que l'on considère comme élu
+     */
+    private void monitor(ServerDAO coordinator) {
+        if (monitored != coordinator) {
+            monitored = coordinator;
+            monitoredSince = eventLoop.now();
+            betterSince = -1;
+            awaitingReply = false;
+            failureDetector.reset();
+            // l'élection vient de le désigner, on le considère vivant
+            failureDetector.heartbeat(eventLoop.now());
+        }
     }
 
     /**
-     * Envoi un ping au serveur donné en paramètre et attend une réponse,
-     * Si la réponse met trop de temps, lance une élection
-     * 
+     * lance une élection si le niveau de suspicion de l'élu dépasse le seuil
+     */
+    private void checkCoordinator() {
+        long now = eventLoop.now();
+        if (!failureDetector.isAvailable(now)) {
+            System.out.println("Réponse au ping NON RECU à temps (phi = "
+                                + failureDetector.phi(now) + ")");
+            ServerDAO coordinator = monitored;
+            monitored = null;
+            failureDetector.reset();
+            electionManager.leaderSuspected(coordinator, now);
+        }
+    }
+
+    /**
+     * Envoi un ping au serveur donné en paramètre, la réponse alimentera
+     * le détecteur de panne
+     *
      * @param coordinator serveur que l'on considère comme élu
      */
     private void pingCoordinator(ServerDAO coordinator) {
+        if (awaitingReply) {
+            // le ping précédent n'a pas reçu de réponse avant ce tour
+            electionManager.getMetrics().pingMissed();
+        }
         try {
-            byte[] message = new byte[1];
-            message[0] = Ping.SEND.value;
-            DatagramPacket datagram = new DatagramPacket(message,
-                                                    1,
-                                                    coordinator.getIpAdress(),
-                                                    PORT_PING + coordinator.getId());
-            socket.send(datagram);
+            ping.rewind();
+            transport.send(ping, pingAddresses[coordinator.getId()]);
+            awaitingReply = true;
+            electionManager.getMetrics().pingSent();
             System.out.println("Ping envoyé au serveur ip : "
                                 + coordinator.getIpAdress()
                                 + " port : "
-                                + PORT_PING 
+                                + PORT_PING
                                 + coordinator.getId());
         } catch (IOException ex) {
             Logger.getLogger(PingCoordinatorManager.class.getName())
                     .log(Level.SEVERE, null, ex);
         }
-        DatagramPacket packet = new DatagramPacket(buffer, 1);
-        try {
-            socket.setSoTimeout(1000);
-            socket.receive(packet);
-            System.out.println("Réponse du ping reçu du serveur ip : "
-                                + packet.getAddress()
-                                + " port : "
-                                + packet.getPort());
-        } catch (SocketTimeoutException ex) {
-            System.out.println("Réponse au ping NON RECU à temps");
-            electionManager.startNewElection();
-        } catch (SocketException ex) {
-            Logger.getLogger(PingCoordinatorManager.class.getName())
-                    .log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(PingCoordinatorManager.class.getName())
-                    .log(Level.SEVERE, null, ex);
+    }
+
+    /**
+     * envoie un battement de coeur à chacun des autres serveurs de l'anneau,
+     * le même buffer en lecture seule sert pour tous les envois
+     */
+    private void sendHeartbeats() {
+        for (ServerDAO server : servers) {
+            if (server == null || server == mySelf) {
+                continue;
+            }
+            try {
+                transport.send(heartbeat.duplicate(),
+                               pingAddresses[server.getId()]);
+            } catch (IOException ex) {
+                Logger.getLogger(PingCoordinatorManager.class.getName())
+                        .log(Level.SEVERE, null, ex);
+            }
         }
     }
 
     /**
-     * reçoit les pings et y répond immédiatement
+     * appelé par l'EventLoop pour chaque ping, réponse ou battement de coeur
+     * reçu, répond immédiatement aux pings si nous sommes l'élu
+     *
+     * @param data contenu du paquet reçu
+     * @param source adresse de l'expéditeur
+     * @throws IOException Si un soucis de réseau survient
      */
-    private void receivePingFromOthers() {
-        DatagramPacket packet = new DatagramPacket(buffer, 1);
-        try {
-            socket.setSoTimeout(0);
-            System.out.println("Attente de PING");
-            socket.receive(packet);
-            System.out.println("PING reçu du serveur ip : " 
-                                + packet.getAddress()
-                                + " port : "
-                                + packet.getPort());
-            
-            byte[] message = new byte[1];
-            message[0] = Ping.RECEIVE.value;
-            DatagramPacket datagram = new DatagramPacket(message,
-                                                        1,
-                                                        packet.getAddress(),
-                                                        packet.getPort());
-            socket.send(datagram);
-            System.out.println("PING répondu au serveur ip : "
-                                + packet.getAddress()
+    @Override
+    public void onReceive(ByteBuffer data, InetSocketAddress source)
+            throws IOException {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        byte type = data.get(data.position());
+        if (type == Ping.SEND.value) {
+            // chemin critique de l'élu: ni trace ni exception ni allocation
+            if (electionManager.isElected(mySelf)) {
+                responder.answer(source);
+            }
+        } else if (type == Ping.RECEIVE.value
+                || type == Ping.HEARTBEAT.value) {
+            System.out.println("Réponse du ping reçu du serveur ip : "
+                                + source.getAddress()
                                 + " port : "
-                                + packet.getPort());
-        } catch (IOException ex) {
-            Logger.getLogger(PingCoordinatorManager.class.getName())
-                    .log(Level.SEVERE, null, ex);
+                                + source.getPort());
+            if (validating != null
+                    && pingPeers.indexOf(source) == validating.getId()) {
+                validating = null;
+                validationTimeout.cancel();
+                validated.run();
+            }
+            if (monitored != null
+                    && pingPeers.indexOf(source) == monitored.getId()) {
+                failureDetector.heartbeat(eventLoop.now());
+                awaitingReply = false;
+                if (data.remaining() >= 5) {
+                    electionManager.leaderAptitudeReceived(monitored,
+                            data.getInt(data.position() + 1));
+                }
+            }
         }
     }
-    
 }
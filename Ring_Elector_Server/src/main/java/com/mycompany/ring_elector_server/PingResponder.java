@@ -0,0 +1,115 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * répond aux pings reçus par l'élu.
+ *
+ * Le transport vide tous les datagrams en attente à chaque réveil de
+ * l'EventLoop et chaque ping est répondu immédiatement, sans trace ni
+ * allocation: le buffer de réponse est toujours le même, seule l'aptitude
+ * de l'élu qu'il transporte est mise à jour périodiquement. Le débit soutenu
+ * est mesuré sur des fenêtres de REPORT_PERIOD millisecondes.
+ *
+ * N'est utilisé que depuis le thread de l'EventLoop, seuls les compteurs
+ * publiés peuvent être lus depuis d'autres threads. Le nombre de pings
+ * répondus est publié à chaque réponse par une écriture ordonnée
+ * (lazySet), sans barrière complète, le débit une fois par fenêtre.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class PingResponder {
+
+    private static final long REPORT_PERIOD = 10000;
+    private final Transport transport;
+    private final EventLoop eventLoop;
+    private final ByteBuffer reply;
+    private long answered;
+    private long windowStart;
+    private long windowAnswered;
+    private final AtomicLong totalAnswered;
+    private volatile double throughput;
+
+    /**
+     * constructeur
+     *
+     * @param transport transport sur lequel répondre
+     * @param eventLoop boucle qui mesure le débit périodiquement
+     */
+    public PingResponder(Transport transport, EventLoop eventLoop) {
+        this.transport = transport;
+        this.eventLoop = eventLoop;
+        reply = ByteBuffer.allocate(5);
+        reply.put(0, Ping.RECEIVE.value);
+        totalAnswered = new AtomicLong();
+    }
+
+    /**
+     * change l'aptitude annoncée dans les réponses suivantes
+     *
+     * @param aptitude aptitude actuelle de l'élu
+     */
+    public void setAptitude(int aptitude) {
+        reply.putInt(1, aptitude);
+    }
+
+    /**
+     * démarre la mesure périodique du débit
+     */
+    public void start() {
+        windowStart = eventLoop.now();
+        eventLoop.schedule(REPORT_PERIOD, this::report);
+    }
+
+    /**
+     * répond à un ping en réutilisant le buffer de réponse
+     *
+     * @param source adresse de l'expéditeur du ping
+     * @throws IOException en cas de soucis lors de l'envoie de la réponse
+     */
+    public void answer(InetSocketAddress source) throws IOException {
+        // le buffer est réutilisé, seule l'aptitude change d'un tour de
+        // surveillance à l'autre
+        reply.rewind();
+        transport.send(reply, source);
+        totalAnswered.lazySet(++answered);
+    }
+
+    /**
+     * retourne le nombre total de pings répondus
+     *
+     * @return le nombre total de pings répondus
+     */
+    public long getAnswered() {
+        return totalAnswered.get();
+    }
+
+    /**
+     * retourne le débit de réponses mesuré sur la dernière fenêtre
+     *
+     * @return le nombre de pings répondus par seconde
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * calcule le débit de la fenêtre écoulée et l'affiche s'il y a eu du
+     * traffic
+     */
+    private void report() {
+        long now = eventLoop.now();
+        long count = answered - windowAnswered;
+        throughput = now > windowStart ? count * 1000.0 / (now - windowStart) : 0;
+        windowAnswered = answered;
+        windowStart = now;
+        if (count > 0) {
+            System.out.println("Pings répondus : " + Math.round(throughput)
+                                + " /s");
+        }
+        eventLoop.schedule(REPORT_PERIOD, this::report);
+    }
+}
@@ -0,0 +1,104 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * réglages de la réélection en tâche de fond lorsqu'un serveur devient
+ * nettement plus apte que l'élu.
+ *
+ * Un serveur ne lance une élection contre un élu vivant que si:
+ * - son aptitude dépasse celle de l'élu d'au moins margin points
+ * - sans interruption pendant window millisecondes
+ * - et que l'élu est en place depuis au moins minTenure millisecondes
+ *
+ * La marge et la fenêtre forment une hystérésis: une aptitude qui oscille
+ * autour de celle de l'élu ne provoque aucune élection. La durée minimale
+ * de mandat limite le nombre de changements d'élu dus à la préemption.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public final class PreemptionPolicy {
+
+    /**
+     * aucune préemption: l'élu ne change que s'il tombe en panne ou quitte
+     * l'anneau
+     */
+    public static final PreemptionPolicy DISABLED
+            = new PreemptionPolicy(false, 0, 0, 0);
+    private final boolean enabled;
+    private final int margin;
+    private final long window;
+    private final long minTenure;
+
+    /**
+     * constructeur
+     *
+     * @param margin avance d'aptitude sur l'élu nécessaire, en points
+     * @param window durée pendant laquelle l'avance doit se maintenir, en
+     *               millisecondes
+     * @param minTenure durée minimale du mandat d'un élu avant qu'il puisse
+     *                  être préempté, en millisecondes
+     * @throws IllegalArgumentException si un réglage est négatif
+     */
+    public PreemptionPolicy(int margin, long window, long minTenure)
+            throws IllegalArgumentException {
+        this(true, margin, window, minTenure);
+        if (margin < 0 || window < 0 || minTenure < 0) {
+            throw new IllegalArgumentException("Réglage de préemption négatif");
+        }
+    }
+
+    private PreemptionPolicy(boolean enabled, int margin, long window,
+                             long minTenure) {
+        this.enabled = enabled;
+        this.margin = margin;
+        this.window = window;
+        this.minTenure = minTenure;
+    }
+
+    /**
+     * indique si un élu vivant peut être remplacé par un serveur plus apte
+     *
+     * @return true si la préemption est active
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * retourne l'avance d'aptitude requise pour remplacer l'élu
+     *
+     * @return l'avance d'aptitude sur l'élu nécessaire, en points
+     */
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * retourne la durée pendant laquelle l'avance doit se maintenir
+     *
+     * @return la durée pendant laquelle l'avance doit se maintenir, en
+     *         millisecondes
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * retourne la durée minimale du mandat d'un élu
+     *
+     * @return la durée minimale du mandat d'un élu, en millisecondes
+     */
+    public long getMinTenure() {
+        return minTenure;
+    }
+
+    /**
+     * indique si une aptitude dépasse celle de l'élu de la marge requise
+     *
+     * @param aptitude notre aptitude
+     * @param leaderAptitude aptitude de l'élu
+     * @return true si l'avance est suffisante
+     */
+    boolean exceeds(int aptitude, int leaderAptitude) {
+        return (long) aptitude - leaderAptitude >= margin;
+    }
+}
@@ -1,122 +1,357 @@
 package com.mycompany.ring_elector_server;
 
 import java.io.IOException;
-import static java.lang.System.exit;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.nio.file.Files;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 /**
  * classe servant de serveur se connectant à d'autres serveurs et implémentant
  * un système d'élection en anneaux et pinguant régulièrement l'élu
  * 
- * Elle lance deux threads
+ * Elle lance un seul thread exécutant une EventLoop sur laquelle sont
+ * enregistrés deux gestionnaires
  * Le premier implémente l'algorithme d'élection en anneaux avec panne
  * Le second sert uniquement à pinguer régulièrement le serveur élu par
  * le précédent algorithme
  * 
- * L'élection est donc lancée au démarrage de ce serveur
+ * L'élection est donc lancée au démarrage de ce serveur, sauf si l'élu
+ * enregistré dans un LeaderSnapshot répond toujours: le serveur reprend
+ * alors sa place sans élection
+ * 
+ * Des serveurs peuvent rejoindre ou quitter l'anneau sans redémarrage, par
+ * updateTopology ou en surveillant le fichier de topologie par
+ * watchTopology
+ * 
+ * Les clients distants peuvent demander l'élu ou s'abonner à ses
+ * changements auprès d'un LeaderLookupService, qui a son propre thread pour
+ * que leurs requêtes ne retardent pas l'élection
+ * 
+ * Les métriques du serveur sont publiées par JMX sous le nom
+ * com.mycompany.ring_elector_server:type=ElectorMetrics,id=<id>
  * 
  * Le réseau est considéré comme infaillible pour ce labo
  * 
  * @author Jimmy Verdasca et Nathan Gonzales
  */
 public class RingElectorServer {
-    private final Thread electionManagerThread;
-    private final Thread pingCoordinatorManager;
+    private static final int PORT_LOOKUP = 3000;
+    private final ServerDAO ownServer;
+    private final EventLoop eventLoop;
+    private final Thread eventLoopThread;
     private final ElectionManager electionManager;
     private final PingCoordinatorManager pingCoordinator;
+    private TopologyFile topologyFile;
+    private Path snapshotFile;
+    private final TransportFactory transportFactory;
+    private LeaderLookupService lookupService;
 
     /**
      * constructeur
      * 
      * @param ownServer ServerDAO représentant notre instance
      * @param servers table de correspondance id->ServerDAO devant contenir 
-     * ServerDAO aussi
-     * @throws SocketException Si la création de notre propre socket échoue
+     * ServerDAO aussi, null pour un identifiant sans serveur
+     * @throws IOException Si la création de nos propres channels échoue
      */
     public RingElectorServer(ServerDAO ownServer, ServerDAO[] servers)
-            throws SocketException {
-        this.electionManager = new ElectionManager(ownServer, servers);
-        this.electionManagerThread = new Thread(electionManager);
+            throws IOException {
+        this(ownServer, servers, UdpTransport.FACTORY, LivenessMode.PING);
+    }
+    
+    /**
+     * constructeur permettant de choisir le transport, par exemple un
+     * InMemoryNetwork pour co-héberger plusieurs serveurs dans la même JVM,
+     * et la manière de surveiller l'élu
+     * 
+     * @param ownServer ServerDAO représentant notre instance
+     * @param servers table de correspondance id->ServerDAO devant contenir 
+     * ServerDAO aussi
+     * @param transportFactory fabrique des transports de l'élection et des pings
+     * @param livenessMode les serveurs pinguent l'élu ou l'élu envoie des
+     *                     battements de coeur à tous
+     * @throws IOException Si la création de nos propres transports échoue
+     */
+    public RingElectorServer(ServerDAO ownServer, ServerDAO[] servers,
+                             TransportFactory transportFactory,
+                             LivenessMode livenessMode)
+            throws IOException {
+        this(ownServer, servers, transportFactory, livenessMode,
+             StaticAptitude.INSTANCE);
+    }
+    
+    /**
+     * constructeur permettant en outre de choisir comment l'aptitude de ce
+     * serveur est calculée, par exemple un LoadAwareAptitude pour élire le
+     * serveur le moins chargé
+     * 
+     * @param ownServer ServerDAO représentant notre instance
+     * @param servers table de correspondance id->ServerDAO devant contenir 
+     * ServerDAO aussi
+     * @param transportFactory fabrique des transports de l'élection et des pings
+     * @param livenessMode les serveurs pinguent l'élu ou l'élu envoie des
+     *                     battements de coeur à tous
+     * @param aptitudeStrategy calcul de notre aptitude à chaque élection
+     * @throws IOException Si la création de nos propres transports échoue
+     */
+    public RingElectorServer(ServerDAO ownServer, ServerDAO[] servers,
+                             TransportFactory transportFactory,
+                             LivenessMode livenessMode,
+                             AptitudeStrategy aptitudeStrategy)
+            throws IOException {
+        this(ownServer, servers, transportFactory, livenessMode,
+             aptitudeStrategy, PreemptionPolicy.DISABLED);
+    }
+    
+    /**
+     * constructeur permettant en outre de remplacer un élu vivant par un
+     * serveur devenu nettement plus apte, par exemple moins chargé
+     * 
+     * @param ownServer ServerDAO représentant notre instance
+     * @param servers table de correspondance id->ServerDAO devant contenir 
+     * ServerDAO aussi
+     * @param transportFactory fabrique des transports de l'élection et des pings
+     * @param livenessMode les serveurs pinguent l'élu ou l'élu envoie des
+     *                     battements de coeur à tous
+     * @param aptitudeStrategy calcul de notre aptitude à chaque élection
+     * @param preemption conditions d'une réélection en tâche de fond
+     * @throws IOException Si la création de nos propres transports échoue
+     */
+    public RingElectorServer(ServerDAO ownServer, ServerDAO[] servers,
+                             TransportFactory transportFactory,
+                             LivenessMode livenessMode,
+                             AptitudeStrategy aptitudeStrategy,
+                             PreemptionPolicy preemption)
+            throws IOException {
+        this.ownServer = ownServer;
+        this.transportFactory = transportFactory;
+        this.eventLoop = new EventLoop();
+        this.electionManager = new ElectionManager(ownServer, servers,
+                                                   eventLoop, transportFactory,
+                                                   aptitudeStrategy);
         this.pingCoordinator = new PingCoordinatorManager(ownServer,
-                                                        electionManager);
-        this.pingCoordinatorManager = new Thread(pingCoordinator);
+                                electionManager, eventLoop, transportFactory,
+                                PingCoordinatorManager.DEFAULT_PHI_THRESHOLD,
+                                livenessMode, preemption);
+        this.eventLoopThread = new Thread(eventLoop);
     }
     
     /**
-     * lance les threads et démmarre une élection
+     * publie les métriques par JMX, lance le thread de l'EventLoop et
+     * démmarre une élection
      */
     public void start() {
-        electionManagerThread.start();
-        pingCoordinatorManager.start();
-        electionManager.startNewElection();
+        start(null);
+    }
+    
+    /**
+     * démarre comme start(), mais reprend l'élu enregistré dans un
+     * instantané s'il répond à un ping: un redémarrage ne coûte alors pas
+     * d'élection. L'instantané est ensuite réécrit à chaque fin d'élection
+     * et à l'arrêt du serveur.
+     * 
+     * @param snapshotFile fichier de l'instantané, null pour toujours
+     * démarrer par une élection
+     */
+    public void start(Path snapshotFile) {
+        LeaderSnapshot snapshot = readSnapshot(snapshotFile);
+        electionManager.getMetrics().register(ownServer.getId());
+        eventLoopThread.start();
+        pingCoordinator.start();
+        eventLoop.execute(() -> {
+            this.snapshotFile = snapshotFile;
+            if (snapshotFile != null) {
+                electionManager.addListener(state -> saveSnapshot());
+            }
+            ServerDAO leader = leaderOf(snapshot);
+            if (leader == null) {
+                electionManager.startNewElection();
+            } else {
+                // sans réponse, l'élection qu'un autre serveur aurait lancée
+                // entre-temps est rejointe plutôt que doublée
+                pingCoordinator.validate(leader,
+                        () -> electionManager.restore(snapshot),
+                        electionManager::startFirstElection);
+            }
+        });
+    }
+    
+    /**
+     * lit l'instantané, un instantané invalide est ignoré
+     * 
+     * @param snapshotFile fichier de l'instantané, peut être null
+     * @return l'instantané, null s'il est absent ou invalide
+     */
+    private LeaderSnapshot readSnapshot(Path snapshotFile) {
+        if (snapshotFile == null) {
+            return null;
+        }
+        try {
+            return LeaderSnapshot.read(snapshotFile);
+        } catch (IOException ex) {
+            Logger.getLogger(RingElectorServer.class.getName())
+                  .log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+    
+    /**
+     * retrouve l'élu à valider d'un instantané. Un élu qui serait notre
+     * propre serveur ne peut être validé par un ping: une élection décide
+     * alors s'il l'est resté.
+     * 
+     * @param snapshot instantané lu, peut être null
+     * @return l'élu de l'instantané, null s'il n'y en a pas à valider
+     */
+    private ServerDAO leaderOf(LeaderSnapshot snapshot) {
+        if (snapshot == null || snapshot.getServerId() != ownServer.getId()) {
+            return null;
+        }
+        ServerDAO[] servers = electionManager.getServers();
+        int id = snapshot.getLeaderId();
+        if (id < 0 || id >= servers.length || servers[id] == ownServer) {
+            return null;
+        }
+        return servers[id];
+    }
+    
+    /**
+     * enregistre l'état de l'élection dans l'instantané, depuis le thread
+     * de l'EventLoop
+     */
+    private void saveSnapshot() {
+        LeaderSnapshot snapshot = electionManager.snapshot();
+        if (snapshotFile == null || snapshot == null) {
+            return;
+        }
+        try {
+            snapshot.write(snapshotFile);
+        } catch (IOException ex) {
+            Logger.getLogger(RingElectorServer.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
     }
     
+    /**
+     * arrête les gestionnaires puis l'EventLoop. Si ce serveur est l'élu, il
+     * annonce son départ et son premier remplaçant prend aussitôt sa place:
+     * un redémarrage planifié n'attend pas la détection de panne.
+     */
     public void stop() {
-        electionManager.stop();
-        pingCoordinator.stop();
+        eventLoop.execute(() -> {
+            if (topologyFile != null) {
+                topologyFile.stop();
+            }
+            saveSnapshot();
+            electionManager.stop();
+            electionManager.setRegister(null);
+            pingCoordinator.stop();
+        });
+        eventLoop.stop();
+        if (lookupService != null) {
+            lookupService.stop();
+        }
+        electionManager.getMetrics().unregister();
+    }
+    
+    /**
+     * publie l'élu dans un fichier projeté en mémoire, mis à jour à chaque
+     * changement de l'état de l'élection. Les processus de l'hôte le lisent
+     * par un LeaderRegisterReader, en quelques nanosecondes et sans réseau.
+     * 
+     * @param registerFile fichier du registre, créé s'il n'existe pas
+     * @throws IOException Si le fichier ne peut être projeté en mémoire
+     */
+    public void exportLeader(Path registerFile) throws IOException {
+        LeaderRegister register = LeaderRegister.open(registerFile);
+        eventLoop.execute(() -> electionManager.setRegister(register));
+    }
+    
+    /**
+     * répond aux clients cherchant l'élu sur un port dédié, voir Lookup et
+     * LeaderLookupService. Le service a son propre thread et sa réponse
+     * n'est encodée qu'à chaque changement d'élu.
+     * 
+     * @param address adresse à laquelle les clients joignent le service
+     * @throws IOException Si le transport du service ne peut être ouvert
+     */
+    public void serveLeaderLookups(InetSocketAddress address)
+            throws IOException {
+        LeaderLookupService service = new LeaderLookupService(address,
+                                                              transportFactory);
+        service.start();
+        electionManager.addListener(service::leaderChanged);
+        electionManager.getMetrics().setLookupService(service);
+        lookupService = service;
+        eventLoop.execute(() -> {
+            ElectionState state = electionManager.getState();
+            if (state.isComplete()) {
+                service.leaderChanged(state);
+            }
+        });
+    }
+    
+    /**
+     * remplace la topologie de l'anneau: les nouveaux serveurs le
+     * rejoignent, les serveurs absents le quittent, sans interrompre les
+     * élections en cours
+     * 
+     * @param servers table de correspondance id->ServerDAO, null pour un
+     * identifiant sans serveur
+     */
+    public void updateTopology(ServerDAO[] servers) {
+        eventLoop.execute(() -> electionManager.getMultiplexer()
+                                               .updateTopology(servers));
+    }
+    
+    /**
+     * surveille le fichier de topologie et applique chacune de ses
+     * modifications par updateTopology
+     * 
+     * @param path fichier de topologie, une ligne "ip port id" par serveur
+     * @throws IOException Si le dossier du fichier ne peut être surveillé
+     */
+    public void watchTopology(Path path) throws IOException {
+        TopologyFile file = new TopologyFile(path, eventLoop,
+                electionManager.getMultiplexer()::updateTopology);
+        file.start();
+        eventLoop.execute(() -> topologyFile = file);
     }
     
     /**
      * main lançant le serveur et donc ces threads
      * Lit le fichier structure.txt pour y récupérer les informations sur les
-     * serveurs existant
+     * serveurs existant, puis le surveille pour suivre les arrivées et
+     * départs de serveurs. L'élu connu est enregistré dans snapshot<id>.dat
+     * pour être repris au prochain démarrage, publié dans leader<id>.reg
+     * pour les processus de l'hôte et servi aux clients distants sur le
+     * port 3000 + id.
      * 
      * @param args ID du serveur qu'on lance
-     * @throws SocketException S'il est impossible de créer les sockets de ce serveur
+     * @throws IOException S'il est impossible de lire le fichier ou de créer
+     * les sockets de ce serveur
      */
-    public static void main (String[] args) throws SocketException{
-        final String FILE_NAME = "./structure.txt";
+    public static void main (String[] args) throws IOException{
+        final Path FILE_NAME = Paths.get("./structure.txt");
         
         Scanner in = new Scanner(System.in);
         System.out.println("Select one of the identifiers of the servers: ");
         int id = in.nextInt();
         
-        ServerDAO servers[];
-        List<ServerDAO> sList = new ArrayList<>();
-        
-        try (Stream<String> stream = Files.lines(Paths.get(FILE_NAME))) {
-            long count = stream.count();
-            servers = new ServerDAO[(int) count];
-            
-            try (Stream<String> stream2 = Files.lines(Paths.get(FILE_NAME))) {
-            stream2.forEach(line -> {
-                try {
-                    String[] infosServer = line.split(" ");
-                    sList.add(new ServerDAO(InetAddress.getByName(infosServer[0]),
-                                        Integer.parseInt(infosServer[1]),
-                                        Integer.parseInt(infosServer[2])));
-                } catch (UnknownHostException ex) {
-                    Logger.getLogger(ServerDAO.class.getName())
-                          .log(Level.SEVERE, null, ex);
-                    exit(1);
-                }
-            });
-            
-            for (int cnt = 0; cnt < sList.size(); cnt++) {
-                servers[cnt] = sList.get(cnt);
-            }
-        
-            ServerDAO mySelf = servers[id];
-            RingElectorServer server = new RingElectorServer(mySelf, servers);
-            server.start();
-
-            } catch (IOException e) {
-                    e.printStackTrace();
-            }
-        } catch (IOException e) {
-                e.printStackTrace();
+        ServerDAO servers[] = TopologyFile.read(FILE_NAME);
+        if (id < 0 || id >= servers.length || servers[id] == null) {
+            System.out.println("Unknown server identifier: " + id);
+            return;
         }
         
-        
+        RingElectorServer server = new RingElectorServer(servers[id], servers);
+        server.exportLeader(Paths.get("./leader" + id + ".reg"));
+        server.serveLeaderLookups(new InetSocketAddress(
+                servers[id].getIpAdress(), PORT_LOOKUP + id));
+        server.start(Paths.get("./snapshot" + id + ".dat"));
+        server.watchTopology(FILE_NAME);
     }
 }
@@ -0,0 +1,135 @@
+package com.mycompany.ring_elector_server;
+
+import java.util.Arrays;
+
+/**
+ * estimation du temps d'aller-retour (RTT) vers chaque serveur et du délai
+ * de retransmission (RTO) qui en découle, à la manière de Jacobson/Karels
+ * (RFC 6298).
+ *
+ * Chaque aquittement fournit une mesure R: la première initialise
+ * SRTT = R et RTTVAR = R / 2, les suivantes lissent
+ * RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R| puis SRTT = 7/8 SRTT + 1/8 R.
+ * Le délai vaut RTO = SRTT + 4 RTTVAR, borné par MIN_RTO et MAX_RTO. Chaque
+ * échéance expirée sans aquittement double le délai du serveur, jusqu'à
+ * 2^MAX_BACKOFF fois, et la mesure suivante annule ce recul.
+ *
+ * Un message retransmis reçoit un nouveau numéro de séquence: chaque
+ * aquittement désigne donc sans ambiguïté l'envoi qu'il aquitte et toutes
+ * les mesures sont utilisables (pas besoin de l'algorithme de Karn).
+ *
+ * Tant qu'aucune mesure n'est connue, le délai est celui fourni au
+ * constructeur: prudent, il est vite remplacé grâce aux sondes envoyées en
+ * tâche de fond au premier successeur.
+ *
+ * Les mesures sont gardées en microsecondes, un RTT de boucle locale étant
+ * bien inférieur à la milliseconde. N'est pas thread-safe: utilisé depuis
+ * le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+class RttEstimator {
+
+    /**
+     * délai minimal en millisecondes, quelques ticks de la roue temporelle
+     * de l'EventLoop
+     */
+    static final long MIN_RTO = 50;
+    static final int MAX_BACKOFF = 6;
+    private final long initialRto;
+    private final long maxRto;
+    private long[] srtt;
+    private long[] rttvar;
+    private int[] backoff;
+
+    /**
+     * constructeur
+     *
+     * @param servers nombre d'identifiants de serveurs
+     * @param initialRto délai en millisecondes tant qu'aucune mesure n'est
+     *                   connue
+     * @param maxRto délai maximal en millisecondes, recul compris
+     */
+    RttEstimator(int servers, long initialRto, long maxRto) {
+        this.initialRto = initialRto;
+        this.maxRto = maxRto;
+        srtt = new long[servers];
+        rttvar = new long[servers];
+        backoff = new int[servers];
+        Arrays.fill(srtt, -1);
+    }
+
+    /**
+     * retourne le délai de retransmission vers un serveur
+     *
+     * @param server identifiant du serveur
+     * @return le délai en millisecondes, recul compris
+     */
+    long timeout(int server) {
+        long rto;
+        if (srtt[server] < 0) {
+            rto = initialRto;
+        } else {
+            long micros = srtt[server] + 4 * rttvar[server];
+            rto = Math.max(MIN_RTO, (micros + 999) / 1000);
+        }
+        return Math.min(maxRto, rto << backoff[server]);
+    }
+
+    /**
+     * enregistre une mesure du temps d'aller-retour et annule le recul
+     *
+     * @param server identifiant du serveur ayant aquitté
+     * @param rtt temps entre l'envoi et l'aquittement en microsecondes
+     */
+    void sample(int server, long rtt) {
+        if (srtt[server] < 0) {
+            srtt[server] = rtt;
+            rttvar[server] = rtt / 2;
+        } else {
+            rttvar[server] += (Math.abs(srtt[server] - rtt)
+                               - rttvar[server]) >> 2;
+            srtt[server] += (rtt - srtt[server]) >> 3;
+        }
+        backoff[server] = 0;
+    }
+
+    /**
+     * double le délai d'un serveur n'ayant pas aquitté à temps
+     *
+     * @param server identifiant du serveur
+     */
+    void timedOut(int server) {
+        if (backoff[server] < MAX_BACKOFF) {
+            backoff[server]++;
+        }
+    }
+
+    /**
+     * oublie les mesures d'un identifiant, par exemple attribué à un autre
+     * serveur
+     *
+     * @param server identifiant du serveur
+     */
+    void reset(int server) {
+        srtt[server] = -1;
+        rttvar[server] = 0;
+        backoff[server] = 0;
+    }
+
+    /**
+     * agrandit les tables à l'arrivée d'un serveur d'identifiant plus grand
+     *
+     * @param servers nouveau nombre d'identifiants de serveurs
+     */
+    void resize(int servers) {
+        int previous = srtt.length;
+        if (servers <= previous) {
+            return;
+        }
+        srtt = Arrays.copyOf(srtt, servers);
+        rttvar = Arrays.copyOf(rttvar, servers);
+        backoff = Arrays.copyOf(backoff, servers);
+        Arrays.fill(srtt, previous, servers, -1);
+    }
+}
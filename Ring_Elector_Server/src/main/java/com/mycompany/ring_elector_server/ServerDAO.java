@@ -13,6 +13,9 @@ public class ServerDAO {
     private final InetAddress ipAdress;
     private final int port;
     private final int id;
+    private final int aptitude;
+    private static final InetAddressComparator COMPARATOR
+            = new InetAddressComparator();
     
     /**
      * constructeur
@@ -25,6 +28,7 @@ public class ServerDAO {
         this.ipAdress = ipAdress;
         this.port = port; 
         this.id = id;
+        this.aptitude = (ipAdress.getAddress()[3] & 0xFF) + port;
     }
 
     /**
@@ -57,16 +61,13 @@ public class ServerDAO {
     /**
      * calcul et retourne l'aptitude du serveur représenté
      * L'aptitude s'obtient avec la 4ème partie de l'adresse ip
-     * additionné au port.
+     * additionné au port, sans troncature: elle est transmise sur 4 bytes.
+     * Elle est calculée une fois à la construction.
      * 
      * @return l'aptitude du serveur représenté
      */
-    public byte getAptitude() {
-        /* 
-         * On se permet un cast avec perte d'information car
-         * en cas d'égalité l'algorithme départagera avec l'adresse ip
-         */
-        return (byte)(ipAdress.getAddress()[3] + port);
+    public int getAptitude() {
+        return aptitude;
     }
     
     /**
@@ -91,9 +92,8 @@ public class ServerDAO {
      */
     @Override
     public boolean equals(Object obj) {
-        InetAddressComparator comp = new InetAddressComparator();
         return getClass().isInstance(obj) &&
-            comp.compare(ipAdress, ((ServerDAO)obj).ipAdress) == 0 &&
+            COMPARATOR.compare(ipAdress, ((ServerDAO)obj).ipAdress) == 0 &&
             id == ((ServerDAO)obj).id &&
             port == ((ServerDAO)obj).port;
     }
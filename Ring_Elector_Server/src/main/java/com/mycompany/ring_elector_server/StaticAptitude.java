@@ -0,0 +1,30 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * stratégie par défaut: l'aptitude fixe de ServerDAO, calculée à partir de
+ * l'adresse ip et du port. Le même serveur est donc toujours élu tant qu'il
+ * est vivant.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public final class StaticAptitude implements AptitudeStrategy {
+
+    /**
+     * instance partagée, la stratégie n'a pas d'état
+     */
+    public static final StaticAptitude INSTANCE = new StaticAptitude();
+
+    private StaticAptitude() {
+    }
+
+    /**
+     * retourne l'aptitude fixe du serveur
+     *
+     * @param ownServer notre serveur
+     * @return l'aptitude calculée par ServerDAO
+     */
+    @Override
+    public int aptitude(ServerDAO ownServer) {
+        return ownServer.getAptitude();
+    }
+}
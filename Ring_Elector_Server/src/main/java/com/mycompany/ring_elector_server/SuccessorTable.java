@@ -0,0 +1,125 @@
+package com.mycompany.ring_elector_server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * table des successeurs d'un serveur dans l'anneau avec leur état.
+ *
+ * Elle est mise à jour par les aquittements observés (ou leur absence) et
+ * par des sondes envoyées en tâche de fond, ce qui permet à l'ElectionManager
+ * d'envoyer directement ELECTION et RESULT au premier successeur connu
+ * vivant sans attendre un TIME_OUT par serveur en panne à chaque élection.
+ *
+ * La topologie peut changer en cours de route: une case vide (null) de la
+ * table des serveurs est un identifiant qui n'appartient pas ou plus à
+ * l'anneau, elle est ignorée.
+ *
+ * N'est utilisée que depuis le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+class SuccessorTable {
+
+    private ServerDAO[] servers;
+    private PeerState[] states;
+    private final int myIndex;
+
+    /**
+     * constructeur, tous les serveurs sont dans l'état UNKNOWN
+     *
+     * @param servers table de correspondance id->serveur
+     * @param myIndex index de notre propre serveur dans la table
+     */
+    SuccessorTable(ServerDAO[] servers, int myIndex) {
+        this.servers = servers;
+        this.myIndex = myIndex;
+        this.states = new PeerState[servers.length];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = PeerState.UNKNOWN;
+        }
+    }
+
+    /**
+     * retourne le premier successeur qui n'est pas connu comme en panne
+     *
+     * @return le premier successeur joignable, notre propre serveur si tous
+     *         les autres sont en panne
+     */
+    ServerDAO firstAliveSuccessor() {
+        for (int i = 1; i < servers.length; i++) {
+            int index = (myIndex + i) % servers.length;
+            if (servers[index] != null && states[index] != PeerState.DEAD) {
+                return servers[index];
+            }
+        }
+        return servers[myIndex];
+    }
+
+    /**
+     * retourne les serveurs à sonder: les successeurs en panne précédant le
+     * premier successeur joignable ainsi que ce dernier
+     *
+     * @return les serveurs à sonder
+     */
+    List<ServerDAO> probeTargets() {
+        List<ServerDAO> targets = new ArrayList<>();
+        for (int i = 1; i < servers.length; i++) {
+            int index = (myIndex + i) % servers.length;
+            if (servers[index] == null) {
+                continue;
+            }
+            targets.add(servers[index]);
+            if (states[index] != PeerState.DEAD) {
+                break;
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * adopte une nouvelle topologie. L'état des serveurs restés dans l'anneau
+     * est conservé, celui d'un serveur arrivant ou remplacé est UNKNOWN.
+     *
+     * @param servers nouvelle table de correspondance id->serveur, notre
+     *                serveur gardant le même identifiant
+     */
+    void update(ServerDAO[] servers) {
+        PeerState[] updated = new PeerState[servers.length];
+        for (int i = 0; i < updated.length; i++) {
+            boolean kept = i < this.servers.length
+                           && this.servers[i] == servers[i];
+            updated[i] = kept ? states[i] : PeerState.UNKNOWN;
+        }
+        this.servers = servers;
+        this.states = updated;
+    }
+
+    /**
+     * enregistre qu'un serveur a répondu
+     *
+     * @param server serveur ayant aquitté un message
+     */
+    void markAlive(ServerDAO server) {
+        states[server.getId()] = PeerState.ALIVE;
+    }
+
+    /**
+     * enregistre qu'un serveur n'a pas répondu à temps
+     *
+     * @param server serveur n'ayant pas aquitté un message
+     */
+    void markDead(ServerDAO server) {
+        states[server.getId()] = PeerState.DEAD;
+    }
+
+    /**
+     * retourne l'état connu d'un serveur
+     *
+     * @param server serveur dont on veut l'état
+     * @return l'état connu du serveur
+     */
+    PeerState getState(ServerDAO server) {
+        return states[server.getId()];
+    }
+}
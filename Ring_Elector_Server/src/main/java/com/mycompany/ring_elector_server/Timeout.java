@@ -0,0 +1,23 @@
+package com.mycompany.ring_elector_server;
+
+/**
+ * représente une échéance programmée auprès de l'EventLoop.
+ * Permet d'annuler la tâche tant qu'elle n'a pas encore été exécutée.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface Timeout {
+
+    /**
+     * annule l'échéance, la tâche associée ne sera plus exécutée.
+     * Sans effet si la tâche a déjà été exécutée.
+     */
+    void cancel();
+
+    /**
+     * indique si l'échéance a été annulée
+     *
+     * @return true si cancel() a été appelé avant l'expiration
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,175 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * fichier de topologie de l'anneau, une ligne "ip port id" par serveur.
+ *
+ * Le fichier est lu en une seule passe. Une fois surveillé, ses
+ * modifications sont détectées par un WatchService consulté toutes les
+ * RELOAD_PERIOD millisecondes depuis l'EventLoop, sans thread
+ * supplémentaire: le fichier est relu lorsqu'il n'a plus changé depuis une
+ * période et la nouvelle topologie transmise à l'anneau.
+ *
+ * Un fichier relu en cours d'écriture pourrait sembler privé de certains
+ * serveurs: il est préférable de le remplacer d'un coup, en écrivant un
+ * fichier temporaire puis en le renommant.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public final class TopologyFile {
+
+    private static final long RELOAD_PERIOD = 1000;
+    private final Path path;
+    private final EventLoop eventLoop;
+    private final Consumer<ServerDAO[]> onChange;
+    private WatchService watchService;
+    private boolean changed;
+    private boolean running;
+
+    /**
+     * constructeur
+     *
+     * @param path fichier de topologie
+     * @param eventLoop boucle qui consulte le WatchService
+     * @param onChange appelé depuis l'EventLoop avec la topologie relue
+     */
+    TopologyFile(Path path, EventLoop eventLoop,
+                 Consumer<ServerDAO[]> onChange) {
+        this.path = path.toAbsolutePath();
+        this.eventLoop = eventLoop;
+        this.onChange = onChange;
+    }
+
+    /**
+     * lit un fichier de topologie
+     *
+     * @param path fichier de topologie
+     * @return la table de correspondance id->serveur, null pour un
+     *         identifiant absent du fichier
+     * @throws IOException si le fichier ne peut être lu ou est mal formé
+     */
+    public static ServerDAO[] read(Path path) throws IOException {
+        List<ServerDAO> servers = new ArrayList<>();
+        int length = 0;
+        for (String line : Files.readAllLines(path)) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] infosServer = line.trim().split("\\s+");
+            try {
+                ServerDAO server = new ServerDAO(
+                        InetAddress.getByName(infosServer[0]),
+                        Integer.parseInt(infosServer[1]),
+                        Integer.parseInt(infosServer[2]));
+                if (server.getId() < 0
+                        || server.getId() > MessageCodec.MAX_SERVER_ID) {
+                    throw new NumberFormatException("id " + server.getId());
+                }
+                servers.add(server);
+                length = Math.max(length, server.getId() + 1);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                throw new IOException("Ligne invalide : " + line, ex);
+            }
+        }
+        ServerDAO[] topology = new ServerDAO[length];
+        for (ServerDAO server : servers) {
+            if (topology[server.getId()] != null) {
+                throw new IOException("Identifiant en double : "
+                                      + server.getId());
+            }
+            topology[server.getId()] = server;
+        }
+        return topology;
+    }
+
+    /**
+     * commence la surveillance du fichier, depuis n'importe quel thread
+     *
+     * @throws IOException si le dossier du fichier ne peut être surveillé
+     */
+    public void start() throws IOException {
+        watchService = path.getFileSystem().newWatchService();
+        path.getParent().register(watchService,
+                                  StandardWatchEventKinds.ENTRY_CREATE,
+                                  StandardWatchEventKinds.ENTRY_MODIFY);
+        running = true;
+        eventLoop.execute(() -> eventLoop.schedule(RELOAD_PERIOD, this::poll));
+    }
+
+    /**
+     * arrête la surveillance du fichier, depuis le thread de l'EventLoop
+     */
+    public void stop() {
+        running = false;
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            Logger.getLogger(TopologyFile.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * consulte les évènements du dossier sans bloquer, relit le fichier
+     * modifié s'il n'a plus changé depuis la consultation précédente, puis
+     * se reprogramme
+     */
+    private void poll() {
+        if (!running) {
+            return;
+        }
+        boolean modified = false;
+        try {
+            for (WatchKey key = watchService.poll(); key != null;
+                    key = watchService.poll()) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (path.getFileName().equals(event.context())) {
+                        modified = true;
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            return;
+        }
+        if (modified) {
+            changed = true;
+        } else if (changed) {
+            changed = false;
+            reload();
+        }
+        eventLoop.schedule(RELOAD_PERIOD, this::poll);
+    }
+
+    /**
+     * relit le fichier et transmet la nouvelle topologie, un fichier mal
+     * formé est ignoré jusqu'à sa prochaine modification
+     */
+    private void reload() {
+        try {
+            ServerDAO[] topology = read(path);
+            System.out.println("Topologie relue : " + path);
+            onChange.accept(topology);
+        } catch (IOException ex) {
+            Logger.getLogger(TopologyFile.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+}
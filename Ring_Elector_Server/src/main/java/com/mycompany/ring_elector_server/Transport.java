@@ -0,0 +1,37 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * point d'accès réseau d'un gestionnaire (élection, ping...).
+ *
+ * UdpTransport envoie de vrais datagrams, InMemoryTransport transmet les
+ * buffers entre serveurs d'une même JVM sans appel système. Les paquets
+ * reçus sont transmis au TransportReceiver depuis le thread de l'EventLoop.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * envoie les octets restants du buffer au destinataire, sans bloquer.
+     * Le transport n'utilise plus le buffer une fois l'appel terminé:
+     * l'appelant peut le réutiliser immédiatement pour le message suivant.
+     *
+     * @param data octets à envoyer, de position à limit
+     * @param destination adresse du destinataire
+     * @throws IOException en cas de soucis lors de l'envoie du paquet
+     */
+    void send(ByteBuffer data, InetSocketAddress destination) throws IOException;
+
+    /**
+     * ferme le transport, plus aucun paquet ne sera reçu
+     *
+     * @throws IOException Si la fermeture échoue
+     */
+    @Override
+    void close() throws IOException;
+}
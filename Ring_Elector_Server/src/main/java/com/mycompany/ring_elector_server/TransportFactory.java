@@ -0,0 +1,25 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * crée les Transport des gestionnaires, permet de choisir entre UDP et
+ * un réseau en mémoire sans modifier les gestionnaires
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface TransportFactory {
+
+    /**
+     * ouvre un transport à l'adresse donnée
+     *
+     * @param address adresse à laquelle les autres serveurs nous joignent
+     * @param eventLoop boucle qui appellera le receiver
+     * @param receiver callback des paquets reçus
+     * @return le transport ouvert
+     * @throws IOException Si le transport ne peut être ouvert
+     */
+    Transport open(InetSocketAddress address, EventLoop eventLoop,
+                   TransportReceiver receiver) throws IOException;
+}
@@ -0,0 +1,23 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * callback appelé pour chaque paquet reçu par un Transport
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public interface TransportReceiver {
+
+    /**
+     * appelé depuis le thread de l'EventLoop pour chaque paquet reçu.
+     * Le buffer n'est valable que pendant l'appel.
+     *
+     * @param data octets reçus, de position à limit
+     * @param source adresse de l'expéditeur
+     * @throws IOException Si un soucis de réseau survient
+     */
+    void onReceive(ByteBuffer data, InetSocketAddress source) throws IOException;
+}
@@ -0,0 +1,86 @@
+package com.mycompany.ring_elector_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Transport UDP basé sur un DatagramChannel non bloquant enregistré
+ * dans l'EventLoop
+ *
+ * Un même socket pouvant porter les messages de milliers de groupes
+ * d'élection, ses tampons d'envoi et de réception sont agrandis: un
+ * datagram envoyé alors que le tampon d'envoi est plein est perdu sans
+ * erreur par le channel non bloquant.
+ *
+ * @author Jimmy Verdasca et Nathan Gonzales
+ */
+public class UdpTransport implements Transport, DatagramHandler {
+
+    /**
+     * fabrique de transports UDP
+     */
+    public static final TransportFactory FACTORY = UdpTransport::new;
+
+    private static final int MAX_DATAGRAM_LENGTH = 512;
+    private static final int MAX_READS_PER_WAKEUP = 4096;
+    private static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+    private final DatagramChannel channel;
+    private final ByteBuffer buffer;
+    private final TransportReceiver receiver;
+
+    /**
+     * constructeur, écoute sur le port de address pour toutes les interfaces
+     *
+     * @param address adresse à laquelle les autres serveurs nous joignent
+     * @param eventLoop boucle qui surveillera le channel
+     * @param receiver callback des paquets reçus
+     * @throws IOException Si on ne parvient pas à créer le channel
+     */
+    public UdpTransport(InetSocketAddress address, EventLoop eventLoop,
+                        TransportReceiver receiver) throws IOException {
+        this.receiver = receiver;
+        buffer = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH);
+        channel = DatagramChannel.open();
+        // limité par le système (net.core.rmem_max et wmem_max sous Linux)
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+        channel.bind(new InetSocketAddress(address.getPort()));
+        eventLoop.register(channel, this);
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress destination)
+            throws IOException {
+        channel.send(data, destination);
+    }
+
+    /**
+     * lit dans une boucle serrée les datagrams en attente et les transmet au
+     * receiver. Le nombre de lectures par réveil est borné pour ne pas
+     * affamer les autres channels de l'EventLoop, le Selector nous
+     * réveillera à nouveau s'il en reste.
+     *
+     * @param channel channel lisible
+     * @throws IOException Si un soucis de réseau survient
+     */
+    @Override
+    public void onReadable(DatagramChannel channel) throws IOException {
+        InetSocketAddress source;
+        buffer.clear();
+        for (int reads = 0; reads < MAX_READS_PER_WAKEUP
+                && (source = (InetSocketAddress) channel.receive(buffer)) != null;
+                reads++) {
+            buffer.flip();
+            receiver.onReceive(buffer, source);
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}